@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.bluewizardhat.googleauth.GoogleAuth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks calculating and matching codes through the static {@link GoogleAuth} API.
+ *
+ * @author bluewizardhat
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GoogleAuthBenchmark {
+	@Param({ "0", "5", "29" })
+	private int secondsDrift;
+
+	private String secret;
+	private String wrongCode;
+	private long counter;
+
+	@Setup
+	public void setup() {
+		secret = GoogleAuth.prettifySecret(GoogleAuth.generate160BitSharedSecret());
+		counter = System.currentTimeMillis() / 30000;
+		// a code that doesn't match any step makes matching do the maximum amount of work
+		wrongCode = GoogleAuth.calculateCounterBasedCode(secret, counter + 5);
+	}
+
+	@Benchmark
+	public String calculateCounterBasedCode() {
+		return GoogleAuth.calculateCounterBasedCode(secret, counter);
+	}
+
+	@Benchmark
+	public boolean matchTimeBasedCode() {
+		return GoogleAuth.matchTimeBasedCode(secret, wrongCode, secondsDrift);
+	}
+}
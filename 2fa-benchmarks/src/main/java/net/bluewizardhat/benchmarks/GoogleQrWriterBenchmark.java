@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.bluewizardhat.googleauth.GoogleAuth;
+import net.bluewizardhat.googleauth.qr.GoogleQrWriter;
+import net.bluewizardhat.googleauth.qr.PngQrWriter;
+import net.bluewizardhat.googleauth.qr.QrFormat;
+import net.bluewizardhat.googleauth.qr.QrOptions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.ByteStreams;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Benchmarks generating and writing QR codes.
+ *
+ * @author bluewizardhat
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GoogleQrWriterBenchmark {
+	private String secret;
+	private BufferedImage image;
+	private BitMatrix matrix;
+	private PngQrWriter pngWriter;
+	private QrOptions nativeSize = QrOptions.builder().size(0).build();
+
+	@Setup
+	public void setup() {
+		secret = GoogleAuth.generate160BitSharedSecret();
+		image = GoogleQrWriter.generateQr("Benchmark", "benchmark@example.com", secret);
+		matrix = PngQrWriter.generateQrMatrix("Benchmark", "benchmark@example.com", secret);
+		pngWriter = new PngQrWriter();
+	}
+
+	@TearDown
+	public void tearDown() {
+		pngWriter.close();
+	}
+
+	@Benchmark
+	public BufferedImage generateQr() {
+		return GoogleQrWriter.generateQr("Benchmark", "benchmark@example.com", secret);
+	}
+
+	@Benchmark
+	public void writeQr() throws IOException {
+		GoogleQrWriter.writeQr(image, "PNG", ByteStreams.nullOutputStream());
+	}
+
+	@Benchmark
+	public BitMatrix generateQrMatrix() {
+		return PngQrWriter.generateQrMatrix("Benchmark", "benchmark@example.com", secret);
+	}
+
+	@Benchmark
+	public void writeQr_png() throws IOException {
+		pngWriter.write(matrix, ByteStreams.nullOutputStream());
+	}
+
+	@Benchmark
+	public void writeQr_nativePng() throws IOException {
+		GoogleQrWriter.writeQr("Benchmark", "benchmark@example.com", secret, nativeSize, QrFormat.PNG, ByteStreams.nullOutputStream());
+	}
+
+	@Benchmark
+	public void writeQr_svg() throws IOException {
+		GoogleQrWriter.writeQr("Benchmark", "benchmark@example.com", secret, nativeSize, QrFormat.SVG, ByteStreams.nullOutputStream());
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.bluewizardhat.googleauth.GoogleAuth;
+import net.bluewizardhat.googleauth.HotpVerifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks HOTP look-ahead and resynchronization with codes that don't match, so the whole window is searched.
+ *
+ * @author bluewizardhat
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotpVerifierBenchmark {
+	@Param({ "10", "100", "1000" })
+	private int lookAhead;
+
+	private HotpVerifier verifier;
+	private int wrongCode;
+
+	@Setup
+	public void setup() {
+		String secret = GoogleAuth.generate160BitSharedSecret();
+		verifier = new HotpVerifier(secret);
+		wrongCode = -1;
+		// find a code that doesn't occur in the window
+		for (int code = 0; wrongCode < 0; code++) {
+			if (verifier.matchLookAhead(code, 0, lookAhead + 1) == HotpVerifier.NO_MATCH) {
+				wrongCode = code;
+			}
+		}
+	}
+
+	@Benchmark
+	public long matchLookAhead() {
+		return verifier.matchLookAhead(wrongCode, 0, lookAhead);
+	}
+
+	@Benchmark
+	public long resynchronize() {
+		return verifier.resynchronize(wrongCode, wrongCode, 0, lookAhead);
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.bluewizardhat.googleauth.GoogleAuth;
+import net.bluewizardhat.googleauth.PreparedSecret;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares calculating codes with a {@link PreparedSecret} using the JCE Mac and the fused HOTP kernel.
+ *
+ * @author bluewizardhat
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreparedSecretBenchmark {
+	private PreparedSecret jce;
+	private PreparedSecret fused;
+	private long counter;
+
+	@Setup
+	public void setup() {
+		String secret = GoogleAuth.generate160BitSharedSecret();
+		jce = PreparedSecret.of(secret);
+		fused = PreparedSecret.ofFusedKernel(secret);
+		counter = System.currentTimeMillis() / 30000;
+	}
+
+	@Benchmark
+	public int calculateCode_jce() {
+		return jce.calculateCode(counter++);
+	}
+
+	@Benchmark
+	public int calculateCode_fusedKernel() {
+		return fused.calculateCode(counter++);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.benchmarks;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+
+/**
+ * A {@link YubicoClient} that answers locally without any network traffic, optionally after a fixed delay.
+ *
+ * @author bluewizardhat
+ */
+public class StubYubicoClient extends YubicoClient {
+	private final long latencyMillis;
+
+	public StubYubicoClient(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	@Override
+	public VerificationResponse verify(String otp) {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return new StubResponse(otp);
+	}
+
+	private static class StubResponse implements VerificationResponse {
+		private final String otp;
+
+		StubResponse(String otp) {
+			this.otp = otp;
+		}
+
+		@Override
+		public boolean isOk() {
+			return true;
+		}
+
+		@Override
+		public String getH() {
+			return null;
+		}
+
+		@Override
+		public String getT() {
+			return null;
+		}
+
+		@Override
+		public ResponseStatus getStatus() {
+			return ResponseStatus.OK;
+		}
+
+		@Override
+		public String getTimestamp() {
+			return null;
+		}
+
+		@Override
+		public String getSessioncounter() {
+			return null;
+		}
+
+		@Override
+		public String getSessionuse() {
+			return null;
+		}
+
+		@Override
+		public String getSl() {
+			return null;
+		}
+
+		@Override
+		public String getOtp() {
+			return otp;
+		}
+
+		@Override
+		public String getNonce() {
+			return null;
+		}
+
+		@Override
+		public Map<String, String> getKeyValueMap() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public String getPublicId() {
+			return YubicoClient.getPublicId(otp);
+		}
+	}
+}
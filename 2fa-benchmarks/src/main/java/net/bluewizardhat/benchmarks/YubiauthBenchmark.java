@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bluewizardhat.yubiauth.ModHex;
+import net.bluewizardhat.yubiauth.Yubiauth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the local overhead of {@link Yubiauth#verifyOtp} against a {@link StubYubicoClient}. Every invocation
+ * of {@link #verifyOtp()} uses a new OTP, so it measures the full path and not the memo of recent responses or the
+ * recently seen filter; those are measured separately with a repeated OTP and a pre-check rejection.
+ *
+ * @author bluewizardhat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YubiauthBenchmark {
+	private static final String PUBLIC_ID = "cccccccbcjdi";
+	private static final String OTP = PUBLIC_ID + "fjhnhdtgkbbivclglnbunvcheldkjlhv";
+
+	private final AtomicLong counter = new AtomicLong();
+
+	private Yubiauth yubiauth;
+
+	@Setup
+	public void setup() {
+		yubiauth = new Yubiauth(new StubYubicoClient(0));
+		// seen once so the repeated benchmark never calls the client
+		yubiauth.verifyOtp(OTP, PUBLIC_ID);
+	}
+
+	@Benchmark
+	public boolean verifyOtp() {
+		return yubiauth.verifyOtp(nextOtp(), PUBLIC_ID);
+	}
+
+	/**
+	 * Answered from the memo or rejected as recently seen without calling the client
+	 */
+	@Benchmark
+	public boolean verifyOtp_repeated() {
+		return yubiauth.verifyOtp(OTP, PUBLIC_ID);
+	}
+
+	/**
+	 * Rejected by the public id pre-check without calling the client
+	 */
+	@Benchmark
+	public boolean verifyOtp_precheckRejectsWrongPublicId() {
+		return yubiauth.verifyOtp(OTP, "cccccccbcjdj");
+	}
+
+	/**
+	 * A well formed OTP that has not been used before, the token is a counter
+	 */
+	private String nextOtp() {
+		byte[] token = new byte[16];
+		long value = counter.incrementAndGet();
+		for (int i = 0; i < 8; i++) {
+			token[i] = (byte) (value >>> (8 * i));
+		}
+		return PUBLIC_ID + ModHex.encode(token);
+	}
+}
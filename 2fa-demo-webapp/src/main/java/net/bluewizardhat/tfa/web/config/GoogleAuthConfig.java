@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import net.bluewizardhat.googleauth.ConsumedCounterRegistry;
+
+/**
+ * Configuration of Google Authenticator verification
+ *
+ * @author bluewizardhat
+ */
+@Configuration
+public class GoogleAuthConfig {
+	/**
+	 * How far a user's Google Authenticator clock skew is allowed to wander in whole time steps (5 minutes)
+	 */
+	public static final int MAX_SKEW_STEPS = 10;
+
+	/**
+	 * How many steps on either side of the learned clock skew to try if the skew itself does not match
+	 */
+	public static final int WINDOW_STEPS = 1;
+
+	/**
+	 * How many steps on either side of the current step to try if nothing matched around the learned clock skew,
+	 * so that a skew that has changed back towards zero can be learned again. Every step tried is one more code
+	 * a guess can hit, so this is kept as narrow as {@link #WINDOW_STEPS} plus one rather than {@link #MAX_SKEW_STEPS}.
+	 */
+	public static final int FALLBACK_WINDOW_STEPS = WINDOW_STEPS + 1;
+
+	/**
+	 * Registry of used time steps so that a code cannot be used twice. It must retain steps for as far behind
+	 * as a code can be matched.
+	 */
+	@Bean
+	public ConsumedCounterRegistry consumedCounterRegistry() {
+		return new ConsumedCounterRegistry(MAX_SKEW_STEPS + WINDOW_STEPS);
+	}
+}
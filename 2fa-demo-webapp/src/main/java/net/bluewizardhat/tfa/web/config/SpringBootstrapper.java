@@ -22,8 +22,12 @@
 
 package net.bluewizardhat.tfa.web.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
@@ -56,6 +60,15 @@ public class SpringBootstrapper extends AbstractAnnotationConfigDispatcherServle
 	@EnableWebMvc
 	@ComponentScan("net.bluewizardhat.tfa.web")
 	public static class WebAppConfig extends WebMvcConfigurerAdapter {
+		@Value("${web.async.timeoutMillis}")
+		private long asyncTimeoutMillis;
+
+		@Value("${web.async.threads}")
+		private int asyncThreads;
+
+		@Value("${web.async.queueSize}")
+		private int asyncQueueSize;
+
 		/**
 		 * Configure static resources
 		 */
@@ -65,6 +78,30 @@ public class SpringBootstrapper extends AbstractAnnotationConfigDispatcherServle
 			registry.addResourceHandler("/js/**").addResourceLocations("/js/");
 			registry.addResourceHandler("/css/**").addResourceLocations("/css/");
 		}
+
+		/**
+		 * Runs the blocking parts of requests answered asynchronously, like database updates after a password check,
+		 * apart from the pools doing the password hashing and Yubico verifications
+		 */
+		@Bean
+		public ThreadPoolTaskExecutor asyncExecutor() {
+			ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+			executor.setCorePoolSize(asyncThreads);
+			executor.setMaxPoolSize(asyncThreads);
+			executor.setQueueCapacity(asyncQueueSize);
+			executor.setThreadNamePrefix("web-async-");
+			executor.setDaemon(true);
+			return executor;
+		}
+
+		/**
+		 * Timeout and executor for requests answered asynchronously, like the ones waiting for password hashing
+		 */
+		@Override
+		public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+			configurer.setDefaultTimeout(asyncTimeoutMillis);
+			configurer.setTaskExecutor(asyncExecutor());
+		}
 	}
 
 }
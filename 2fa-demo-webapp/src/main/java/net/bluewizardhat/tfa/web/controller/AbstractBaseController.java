@@ -23,17 +23,27 @@
 package net.bluewizardhat.tfa.web.controller;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import lombok.extern.slf4j.Slf4j;
+import net.bluewizardhat.googleauth.ConsumedCounterRegistry;
+import net.bluewizardhat.googleauth.PreparedSecret;
+import net.bluewizardhat.googleauth.TotpVerifier;
+import net.bluewizardhat.tfa.web.config.GoogleAuthConfig;
 import net.bluewizardhat.tfa.web.data.entities.User;
 import net.bluewizardhat.tfa.web.exception.ForbiddenException;
 import net.bluewizardhat.tfa.web.exception.NotFoundException;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * Just provides some convenience methods and some exception handling
@@ -42,6 +52,8 @@ import com.google.common.collect.ImmutableMap;
  */
 @Slf4j
 public abstract class AbstractBaseController {
+	@Autowired
+	private ConsumedCounterRegistry consumedCounterRegistry;
 
 	protected ImmutableMap.Builder<String,String> success() {
 		return ImmutableMap.<String, String>builder()
@@ -63,6 +75,57 @@ public abstract class AbstractBaseController {
 				.build();
 	}
 
+	/**
+	 * Completes the response of an asynchronous request when the future completes. If the work was rejected
+	 * because a queue was full the client is told the server is busy, other errors go through the exception handlers.
+	 */
+	protected DeferredResult<Map<String, String>> deferredResult(ListenableFuture<Map<String, String>> future) {
+		final DeferredResult<Map<String, String>> result = new DeferredResult<>(null, failure("request.timeout").build());
+		Futures.addCallback(future, new FutureCallback<Map<String, String>>() {
+			@Override
+			public void onSuccess(Map<String, String> response) {
+				result.setResult(response);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				if (t instanceof RejectedExecutionException) {
+					result.setResult(failure("server.busy").build());
+				} else {
+					result.setErrorResult(t);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * An already completed response for an asynchronous request.
+	 */
+	protected DeferredResult<Map<String, String>> completed(Map<String, String> response) {
+		DeferredResult<Map<String, String>> result = new DeferredResult<>();
+		result.setResult(response);
+		return result;
+	}
+
+	/**
+	 * Matches a Google Authenticator code. The current step centred on the clock skew learned from earlier
+	 * verifications is tried first, so in the common case a single code is calculated, then one step on either
+	 * side. Only if those do not match is a narrow window around the current step tried, which finds a skew that
+	 * has gone back to about zero. Codes for steps already used by the user are rejected.
+	 * @return the skew to remember for the user, or null if the code did not match
+	 */
+	protected Integer matchGoogleOtp(User user, String secret, String otp, Integer learnedSkewSteps) {
+		int center = learnedSkewSteps != null ? learnedSkewSteps : 0;
+		TotpVerifier verifier = new TotpVerifier(PreparedSecret.of(secret), consumedCounterRegistry, user.getId().toString());
+		int offset = verifier.matchTimeStepWithFallback(TotpVerifier.parseCode(otp), center, GoogleAuthConfig.WINDOW_STEPS,
+				GoogleAuthConfig.FALLBACK_WINDOW_STEPS);
+		if (offset == TotpVerifier.NO_MATCH) {
+			return null;
+		}
+		return Math.max(-GoogleAuthConfig.MAX_SKEW_STEPS, Math.min(GoogleAuthConfig.MAX_SKEW_STEPS, offset));
+	}
+
 	/**
 	 * Returns a 403 Forbidden HTTP error code if a controller method throws a {@link ForbiddenException}
 	 */
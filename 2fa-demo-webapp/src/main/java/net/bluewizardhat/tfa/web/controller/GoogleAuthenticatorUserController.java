@@ -22,7 +22,6 @@
 
 package net.bluewizardhat.tfa.web.controller;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Map;
 import java.util.UUID;
@@ -35,6 +34,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -43,11 +43,12 @@ import org.springframework.web.bind.annotation.RestController;
 
 import lombok.extern.slf4j.Slf4j;
 import net.bluewizardhat.googleauth.GoogleAuth;
-import net.bluewizardhat.googleauth.qr.GoogleQrWriter;
 import net.bluewizardhat.tfa.web.data.dao.UserJpaDao;
 import net.bluewizardhat.tfa.web.data.entities.User;
 import net.bluewizardhat.tfa.web.exception.ForbiddenException;
 import net.bluewizardhat.tfa.web.exception.NotFoundException;
+import net.bluewizardhat.tfa.web.util.QrCodeCache;
+import net.bluewizardhat.tfa.web.util.QrImage;
 import net.bluewizardhat.tfa.web.util.SessionData;
 
 /**
@@ -78,6 +79,9 @@ public class GoogleAuthenticatorUserController extends AbstractBaseController {
 	@Autowired
 	private UserJpaDao userDao;
 
+	@Autowired
+	private QrCodeCache qrCodeCache;
+
 	/**
 	 * Begin the flow for attaching a Google Authenticator to the account
 	 * At this point we don't actually attach the authenticator, we just generate the secret.
@@ -92,26 +96,52 @@ public class GoogleAuthenticatorUserController extends AbstractBaseController {
 		log.debug("Request to attach google authenticator to user {}", sessionData.getUser());
 
 		String secret = GoogleAuth.generate160BitSharedSecret();
+		qrCodeCache.invalidate(sessionData.getQrUuid());
 		sessionData.setTempGoogleSharedSecret(secret);
 		sessionData.setQrUuid(UUID.randomUUID().toString());
 
+		// get the images ready before the browser asks for them
+		String userName = sessionData.getUser().getUserName();
+		qrCodeCache.prerender(sessionData.getQrUuid(), QrImage.SVG, applicationName, userName, secret);
+		qrCodeCache.prerender(sessionData.getQrUuid(), QrImage.PNG, applicationName, userName, secret);
+
 		return success()
 				.put("sharedSecret", GoogleAuth.prettifySecret(secret))
-				.put("qrUuid", sessionData.getQrUuid() + ".png")
+				.put("qrUuid", sessionData.getQrUuid())
 				.build();
 	}
 
 	/**
-	 * Serve an image with a QR code that can be scanned with GoogleAuthenticator
+	 * Serve an image with a QR code that can be scanned with GoogleAuthenticator, as SVG if the browser accepts it
+	 * and otherwise as a PNG with one pixel per module. Either way the browser scales the image. The image is only
+	 * rendered once per enrollment, repeated requests are served from the {@link QrCodeCache}.
+	 */
+	@RequestMapping(value = "/qr/{uuid}", method = RequestMethod.GET)
+	public void serveGoogleQR(@PathVariable("uuid") String uuid, @RequestHeader(value = "Accept", required = false) String accept,
+			HttpServletResponse httpServletResponse, HttpSession session) throws IOException {
+		serveQrImage(uuid, QrImage.fromAccept(accept), httpServletResponse, session);
+	}
+
+	/**
+	 * Serve a 250x250 PNG image with a QR code, for clients using the original url.
 	 */
 	@RequestMapping(value = "/qr/{uuid}.png", method = RequestMethod.GET, produces = MediaType.IMAGE_PNG_VALUE)
-	public void serveGoogleQR(@PathVariable("uuid") String uuid, HttpServletResponse httpServletResponse, HttpSession session) throws IOException {
+	public void serveGoogleQRPng(@PathVariable("uuid") String uuid, HttpServletResponse httpServletResponse, HttpSession session) throws IOException {
+		serveQrImage(uuid, QrImage.LEGACY_PNG, httpServletResponse, session);
+	}
+
+	private void serveQrImage(String uuid, QrImage image, HttpServletResponse httpServletResponse, HttpSession session) throws IOException {
 		SessionData sessionData = SessionData.from(session).requireLoggedIn();
 		if (!uuid.equals(sessionData.getQrUuid())) {
 			throw new NotFoundException();
 		}
-		BufferedImage image = GoogleQrWriter.generateQr(applicationName, sessionData.getUser().getUserName(), sessionData.getTempGoogleSharedSecret());
-		GoogleQrWriter.writeQr(image, "PNG", httpServletResponse.getOutputStream());
+
+		byte[] bytes = qrCodeCache.get(uuid, image, applicationName, sessionData.getUser().getUserName(), sessionData.getTempGoogleSharedSecret());
+
+		httpServletResponse.setContentType(image.getContentType());
+		httpServletResponse.setHeader("Vary", "Accept");
+		httpServletResponse.setContentLength(bytes.length);
+		httpServletResponse.getOutputStream().write(bytes);
 	}
 
 	/**
@@ -126,12 +156,15 @@ public class GoogleAuthenticatorUserController extends AbstractBaseController {
 			throw new ForbiddenException("Authenticator already attached");
 		}
 
-		if (GoogleAuth.matchTimeBasedCode(sessionData.getTempGoogleSharedSecret(), googleOtp, 5)) {
+		Integer skewSteps = matchGoogleOtp(sessionData.getUser(), sessionData.getTempGoogleSharedSecret(), googleOtp, null);
+		if (skewSteps != null) {
 			log.debug("Google Authenticator validated for user {}", sessionData.getUser());
 			User user = userDao.refreshFromDb(sessionData.getUser());
 			user.setGoogleSecret(sessionData.getTempGoogleSharedSecret());
+			user.setGoogleSkewSteps(skewSteps);
 			sessionData.setUser(userDao.update(user));
 			sessionData.setPassedTwofactor(true);
+			qrCodeCache.invalidate(sessionData.getQrUuid());
 			sessionData.setQrUuid(null);
 			sessionData.setTempGoogleSharedSecret(null);
 			return authenticationSuccess(user);
@@ -154,9 +187,10 @@ public class GoogleAuthenticatorUserController extends AbstractBaseController {
 
 		User user = userDao.refreshFromDb(sessionData.getUser());
 
-		if (GoogleAuth.matchTimeBasedCode(user.getGoogleSecret(), googleOtp, 5)) {
+		if (matchGoogleOtp(user, user.getGoogleSecret(), googleOtp, user.getGoogleSkewSteps()) != null) {
 			log.debug("Google Authenticator validated for user {}", user);
 			user.setGoogleSecret(null);
+			user.setGoogleSkewSteps(null);
 			sessionData.setUser(userDao.update(user));
 			return authenticationSuccess(user);
 		}
@@ -23,27 +23,39 @@
 package net.bluewizardhat.tfa.web.controller;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
-import org.mindrot.jbcrypt.BCrypt;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.http.MediaType;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import lombok.extern.slf4j.Slf4j;
-import net.bluewizardhat.googleauth.GoogleAuth;
 import net.bluewizardhat.tfa.web.data.dao.UserJpaDao;
 import net.bluewizardhat.tfa.web.data.entities.User;
+import net.bluewizardhat.tfa.web.util.LoginRateLimiter;
+import net.bluewizardhat.tfa.web.util.PasswordHasher;
 import net.bluewizardhat.tfa.web.util.SessionData;
 import net.bluewizardhat.tfa.web.util.YubiauthFactory;
 import net.bluewizardhat.yubiauth.Yubiauth;
@@ -64,11 +76,29 @@ public class UserController extends AbstractBaseController {
 	@Autowired
 	private YubiauthFactory yubiauthFactory;
 
+	@Autowired
+	private PasswordHasher passwordHasher;
+
+	@Autowired
+	private LoginRateLimiter loginRateLimiter;
+
+	/**
+	 * Runs the database and twofactor work following the password check, so it does not take up password hashing threads
+	 */
+	@Autowired
+	private AsyncTaskExecutor asyncExecutor;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
 	private Yubiauth yubiAuth;
 
+	private TransactionTemplate transactionTemplate;
+
 	@PostConstruct
 	public void initialize() {
 		yubiAuth = yubiauthFactory.getYubiauth();
+		transactionTemplate = new TransactionTemplate(transactionManager);
 	}
 
 	@RequestMapping(value = "/currentUser", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -83,109 +113,180 @@ public class UserController extends AbstractBaseController {
 		return failure("not.logged.in").build();
 	}
 
-	@Transactional
 	@RequestMapping(value = "/createUser", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
-	public @ResponseBody Map<String, String> createUser(@RequestParam String userName, @RequestParam String displayName, @RequestParam String password, HttpSession session) {
-		SessionData sessionData = SessionData.newSession(session);
+	public @ResponseBody DeferredResult<Map<String, String>> createUser(@RequestParam final String userName, @RequestParam final String displayName, @RequestParam String password, HttpSession session) {
+		final SessionData sessionData = SessionData.newSession(session);
 
 		if (!StringUtils.hasText(userName) || !StringUtils.hasText(displayName) || !StringUtils.hasText(password)) {
-			return failure("some.arguments.are.empty").build();
+			return completed(failure("some.arguments.are.empty").build());
 		}
 
-		User user = new User().setUserName(userName.toLowerCase()).setDisplayName(displayName).setHashedPassword(hashPassword(password)).setCreated(System.currentTimeMillis());
-		log.debug("Creating new user {}", user);
+		return deferredResult(Futures.transform(passwordHasher.hash(password), new Function<String, Map<String, String>>() {
+			@Override
+			public Map<String, String> apply(String hashedPassword) {
+				final User user = new User().setUserName(userName.toLowerCase()).setDisplayName(displayName).setHashedPassword(hashedPassword).setCreated(System.currentTimeMillis());
+				log.debug("Creating new user {}", user);
 
-		// Since we are logging in the user immediately also set last login
-		user.setLastLogin(System.currentTimeMillis());
+				// Since we are logging in the user immediately also set last login
+				user.setLastLogin(System.currentTimeMillis());
 
-		userDao.persist(user);
-		sessionData.setUser(user);
+				transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						userDao.persist(user);
+					}
+				});
+				sessionData.setUser(user);
 
-		return authenticationSuccess(user);
+				return authenticationSuccess(user);
+			}
+		}, asyncExecutor));
 	}
 
 	/**
 	 * Login method. The user must pass the password check. In case any of the twofactor methods are available
 	 * the user must pass at least one twofactor check.
 	 */
-	@Transactional
 	@RequestMapping(value = "/login", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
-	public @ResponseBody Map<String, String> login(@RequestParam String userName, @RequestParam String password, @RequestParam(required=false) String authenticatorOtp, @RequestParam(required=false) String yubiOtp, HttpSession session) {
-		SessionData sessionData = SessionData.newSession(session);
+	public @ResponseBody DeferredResult<Map<String, String>> login(@RequestParam final String userName, @RequestParam final String password, @RequestParam(required=false) final String authenticatorOtp, @RequestParam(required=false) final String yubiOtp, HttpSession session, HttpServletRequest request) {
+		final SessionData sessionData = SessionData.newSession(session);
 
 		log.debug("Login attempt as userName={}", userName);
-		User user = userDao.findByUserName(userName.toLowerCase());
+		final String clientAddress = request.getRemoteAddr();
+		if (!loginRateLimiter.tryAcquire(userName.toLowerCase(), clientAddress)) {
+			return completed(failure("too.many.attempts").build());
+		}
+
+		final User user = userDao.findByUserName(userName.toLowerCase());
 
 		// User and password check
-		if (user == null || !passwordMatch(user, password)) {
-			// In case user or password fail don't tell the client any details
+		if (user == null) {
 			log.debug("Login failed as userName={}", userName);
-			return failure("authentication.failed").build();
+			return completed(failure("authentication.failed").build());
 		}
 
-		// Passed the password check, now error messages can be a little more detailed
+		return deferredResult(Futures.transformAsync(passwordHasher.matches(password, user.getHashedPassword()), new AsyncFunction<Boolean, Map<String, String>>() {
+			@Override
+			public ListenableFuture<Map<String, String>> apply(Boolean passwordMatch) {
+				if (!passwordMatch) {
+					// In case user or password fail don't tell the client any details
+					log.debug("Login failed as userName={}", userName);
+					return Futures.<Map<String, String>>immediateFuture(failure("authentication.failed").build());
+				}
+
+				if (passwordHasher.needsRehash(user.getHashedPassword())) {
+					return Futures.transformAsync(rehash(password), new AsyncFunction<String, Map<String, String>>() {
+						@Override
+						public ListenableFuture<Map<String, String>> apply(String hashedPassword) {
+							if (hashedPassword != null) {
+								// only saved if the login succeeds
+								user.setHashedPassword(hashedPassword);
+							}
+							return twofactorLogin(user, authenticatorOtp, yubiOtp, clientAddress, sessionData);
+						}
+					}, asyncExecutor);
+				}
+
+				return twofactorLogin(user, authenticatorOtp, yubiOtp, clientAddress, sessionData);
+			}
+		}, asyncExecutor));
+	}
 
+	/**
+	 * Hashes a password again with the current algorithm and cost, or null if the hashing queue is full in which
+	 * case it is left for a later login.
+	 */
+	private ListenableFuture<String> rehash(String password) {
+		return Futures.catching(passwordHasher.hash(password), RejectedExecutionException.class, new Function<RejectedExecutionException, String>() {
+			@Override
+			public String apply(RejectedExecutionException e) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Second part of the login after the password check passed, now error messages can be a little more detailed.
+	 */
+	private ListenableFuture<Map<String, String>> twofactorLogin(final User user, String authenticatorOtp, String yubiOtp, String clientAddress, final SessionData sessionData) {
 		if (user.getGoogleSecret() == null && user.getYubicoPublicId() == null) {
 			user.setLastLogin(System.currentTimeMillis());
-			user = userDao.update(user);
-			sessionData.setUser(user);
+			sessionData.setUser(update(user));
 			log.debug("Successful login by user {}; Twofactor not enabled", user);
-			return authenticationSuccess(user);
+			return Futures.immediateFuture(authenticationSuccess(user));
 		}
 
 		if (StringUtils.hasText(authenticatorOtp) && user.getGoogleSecret() != null) {
-			if (GoogleAuth.matchTimeBasedCode(user.getGoogleSecret(), authenticatorOtp, 5)) {
+			Integer skewSteps = matchGoogleOtp(user, user.getGoogleSecret(), authenticatorOtp, user.getGoogleSkewSteps());
+			if (skewSteps != null) {
 				user.setLastLogin(System.currentTimeMillis());
-				user = userDao.update(user);
-				sessionData.setUser(user).setPassedTwofactor(true);
+				user.setGoogleSkewSteps(skewSteps);
+				sessionData.setUser(update(user)).setPassedTwofactor(true);
 				log.debug("Successful login using Google Authenticator; user={}", user);
-				return authenticationSuccess(user);
+				return Futures.immediateFuture(authenticationSuccess(user));
 			} else {
 				// If the GoogleAuth is attempted it must pass
 				log.debug("Login failed Google Authenticator validation; user={}", user);
-				return authenticationFailure("googleAuth.failed", user);
+				return Futures.immediateFuture(authenticationFailure("googleAuth.failed", user));
 			}
 		}
 
 		if (StringUtils.hasText(yubiOtp) && user.getYubicoPublicId() != null) {
-			if (yubiAuth.verifyOtp(yubiOtp, user.getYubicoPublicId())) {
-				user.setLastLogin(System.currentTimeMillis());
-				user = userDao.update(user);
-				sessionData.setUser(user).setPassedTwofactor(true);
-				log.debug("Successful login using Yubikey: user={}", user);
-				return authenticationSuccess(user);
-			} else {
-				// If the YubiAuth is attempted it must pass
-				log.debug("Login failed Yubikey validation; user={}", user);
-				return authenticationFailure("yubiAuth.failed", user);
-			}
+			return Futures.transform(yubiAuth.verifyOtpAsync(yubiOtp, user.getYubicoPublicId()), new Function<Boolean, Map<String, String>>() {
+				@Override
+				public Map<String, String> apply(Boolean verified) {
+					if (verified) {
+						user.setLastLogin(System.currentTimeMillis());
+						sessionData.setUser(update(user)).setPassedTwofactor(true);
+						log.debug("Successful login using Yubikey: user={}", user);
+						return authenticationSuccess(user);
+					} else {
+						// If the YubiAuth is attempted it must pass
+						log.debug("Login failed Yubikey validation; user={}", user);
+						return authenticationFailure("yubiAuth.failed", user);
+					}
+				}
+			}, asyncExecutor);
 		}
 
 		log.debug("Login failed; No Twofactor credentials provided; user={}", user);
-		return authenticationFailure("twofactor.required", user);
+		// the first step of a twofactor login, the attempt with the code is the one that counts
+		loginRateLimiter.refund(user.getUserName(), clientAddress);
+		return Futures.immediateFuture(authenticationFailure("twofactor.required", user));
 	}
 
-	@Transactional
 	@RequestMapping(value = "/changePassword", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
-	public @ResponseBody Map<String, String> changePassword(@RequestParam String oldPassword, @RequestParam String newPassword, HttpSession session) {
-		SessionData sessionData = SessionData.from(session).requireLoggedIn();
+	public @ResponseBody DeferredResult<Map<String, String>> changePassword(@RequestParam String oldPassword, @RequestParam final String newPassword, HttpSession session) {
+		final SessionData sessionData = SessionData.from(session).requireLoggedIn();
 
 		if (!StringUtils.hasText(oldPassword) || !StringUtils.hasText(newPassword)) {
-			return failure("some.arguments.are.empty").build();
+			return completed(failure("some.arguments.are.empty").build());
 		}
 
-		User user = userDao.refreshFromDb(sessionData.getUser());
+		final User user = userDao.refreshFromDb(sessionData.getUser());
 
-		if (!passwordMatch(user, oldPassword)) {
-			log.debug("Failed to change password for userName={}", user.getUserName());
-			return failure("authentication.failed").build();
-		}
+		ListenableFuture<String> hashedPassword = Futures.transformAsync(passwordHasher.matches(oldPassword, user.getHashedPassword()), new AsyncFunction<Boolean, String>() {
+			@Override
+			public ListenableFuture<String> apply(Boolean passwordMatch) {
+				return passwordMatch ? passwordHasher.hash(newPassword) : Futures.<String>immediateFuture(null);
+			}
+		});
+
+		return deferredResult(Futures.transform(hashedPassword, new Function<String, Map<String, String>>() {
+			@Override
+			public Map<String, String> apply(String hashedPassword) {
+				if (hashedPassword == null) {
+					log.debug("Failed to change password for userName={}", user.getUserName());
+					return failure("authentication.failed").build();
+				}
 
-		user.setHashedPassword(hashPassword(newPassword));
-		sessionData.setUser(userDao.update(user));
+				user.setHashedPassword(hashedPassword);
+				sessionData.setUser(update(user));
 
-		log.debug("Updated password for userName={}", user.getUserName());
-		return authenticationSuccess(user);
+				log.debug("Updated password for userName={}", user.getUserName());
+				return authenticationSuccess(user);
+			}
+		}, asyncExecutor));
 	}
 
 	/**
@@ -210,11 +311,16 @@ public class UserController extends AbstractBaseController {
 		return response.build();
 	}
 
-	private String hashPassword(String unhashedPassword) {
-		return BCrypt.hashpw(unhashedPassword, BCrypt.gensalt(12));
-	}
-
-	private boolean passwordMatch(User user, String passwordCandidate) {
-		return BCrypt.checkpw(passwordCandidate, user.getHashedPassword());
+	/**
+	 * Updates the user in its own transaction, as the asynchronous parts of the requests run outside of the
+	 * request thread.
+	 */
+	private User update(final User user) {
+		return transactionTemplate.execute(new TransactionCallback<User>() {
+			@Override
+			public User doInTransaction(TransactionStatus status) {
+				return userDao.update(user);
+			}
+		});
 	}
 }
@@ -88,11 +88,11 @@ public class User implements Serializable {
 	private String displayName;
 
 	/**
-	 * A hashed password
+	 * A hashed password, including the algorithm and cost it was hashed with
 	 */
 	@NotNull
-	@Size(max = 64)
-	@Column(name = "password", length = 64, nullable = false)
+	@Size(max = 128)
+	@Column(name = "password", length = 128, nullable = false)
 	private String hashedPassword;
 
 	/**
@@ -103,6 +103,13 @@ public class User implements Serializable {
 	@Column(name = "google_secret", length = 32)
 	private String googleSecret;
 
+	/**
+	 * Clock skew of the user's Google Authenticator in whole time steps, learned from the last successful
+	 * verification. Used to centre the verification window, null if not yet known.
+	 */
+	@Column(name = "google_skew_steps")
+	private Integer googleSkewSteps;
+
 	/**
 	 * The public id of a Yubikey (if non-null the user is required to supply both
 	 * password and a Yubikey generated code in order to log in)
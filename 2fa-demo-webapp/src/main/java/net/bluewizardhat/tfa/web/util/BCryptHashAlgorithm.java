@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+import org.mindrot.jbcrypt.BCrypt;
+import org.springframework.stereotype.Component;
+
+/**
+ * BCrypt password hashing, the cost is the log2 of the number of rounds.
+ *
+ * @author bluewizardhat
+ */
+@Component
+public class BCryptHashAlgorithm implements PasswordHashAlgorithm {
+	private static final String PREFIX = "$2a$";
+
+	@Override
+	public String getName() {
+		return "bcrypt";
+	}
+
+	@Override
+	public int getMinCost() {
+		return 10;
+	}
+
+	@Override
+	public int getMaxCost() {
+		return 16;
+	}
+
+	@Override
+	public long getMemoryBytes(int cost) {
+		// the Blowfish state, whatever the cost
+		return 4 * 1024;
+	}
+
+	@Override
+	public boolean handles(String hashedPassword) {
+		return hashedPassword.startsWith(PREFIX);
+	}
+
+	@Override
+	public int getCost(String hashedPassword) {
+		// $2a$12$...
+		return Integer.parseInt(hashedPassword.substring(PREFIX.length(), PREFIX.length() + 2));
+	}
+
+	@Override
+	public String hash(String password, int cost) {
+		return BCrypt.hashpw(password, BCrypt.gensalt(cost));
+	}
+
+	@Override
+	public boolean matches(String passwordCandidate, String hashedPassword) {
+		return BCrypt.checkpw(passwordCandidate, hashedPassword);
+	}
+}
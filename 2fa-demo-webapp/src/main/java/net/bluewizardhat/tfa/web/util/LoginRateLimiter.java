@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Token bucket rate limiting of login attempts per user name and per client address, checked before the user is
+ * looked up and the password is hashed so that guessing passwords costs neither database lookups nor hashing.
+ *
+ * <p>Each bucket holds up to burst tokens and regains one every refillMillis. A bucket is kept as a single
+ * {@link AtomicLong} holding the time it is full again, so taking a token is a compare and set without locks. The
+ * buckets live in a cache split into stripes that evicts the least recently used buckets beyond maxEntries and any
+ * bucket left alone long enough to be full again, as a new bucket is no different from a full one.
+ *
+ * @author bluewizardhat
+ */
+@Slf4j
+@Component
+public class LoginRateLimiter {
+	@Value("${login.rateLimit.user.burst}")
+	private int userBurst;
+
+	@Value("${login.rateLimit.user.refillMillis}")
+	private long userRefillMillis;
+
+	@Value("${login.rateLimit.address.burst}")
+	private int addressBurst;
+
+	@Value("${login.rateLimit.address.refillMillis}")
+	private long addressRefillMillis;
+
+	@Value("${login.rateLimit.maxEntries}")
+	private int maxEntries;
+
+	@Value("${login.rateLimit.stripes}")
+	private int stripes;
+
+	private Limiter userLimiter;
+
+	private Limiter addressLimiter;
+
+	private Ticker ticker = Ticker.systemTicker();
+
+	public LoginRateLimiter() {
+	}
+
+	/**
+	 * For use outside of Spring, initialized right away
+	 */
+	LoginRateLimiter(int userBurst, long userRefillMillis, int addressBurst, long addressRefillMillis, int maxEntries, int stripes, Ticker ticker) {
+		this.userBurst = userBurst;
+		this.userRefillMillis = userRefillMillis;
+		this.addressBurst = addressBurst;
+		this.addressRefillMillis = addressRefillMillis;
+		this.maxEntries = maxEntries;
+		this.stripes = stripes;
+		this.ticker = ticker;
+		initialize();
+	}
+
+	@PostConstruct
+	public void initialize() {
+		userLimiter = new Limiter(userBurst, userRefillMillis, maxEntries, stripes, ticker);
+		addressLimiter = new Limiter(addressBurst, addressRefillMillis, maxEntries, stripes, ticker);
+
+		log.debug("LoginRateLimiter initialized, userBurst={}, userRefillMillis={}, addressBurst={}, addressRefillMillis={}, maxEntries={}, stripes={}",
+				userBurst, userRefillMillis, addressBurst, addressRefillMillis, maxEntries, stripes);
+	}
+
+	/**
+	 * Takes a token for the client address and then for the user name. Returns false if either bucket is empty.
+	 */
+	public boolean tryAcquire(@NonNull String userName, @NonNull String clientAddress) {
+		if (!addressLimiter.tryAcquire(clientAddress)) {
+			log.debug("Login attempts rate limited for clientAddress={}", clientAddress);
+			return false;
+		}
+		if (!userLimiter.tryAcquire(userName)) {
+			log.debug("Login attempts rate limited for userName={}", userName);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back the tokens taken by {@link #tryAcquire(String, String)}, for attempts that should not count, like
+	 * the first step of a twofactor login that only checks the password.
+	 */
+	public void refund(@NonNull String userName, @NonNull String clientAddress) {
+		addressLimiter.refund(clientAddress);
+		userLimiter.refund(userName);
+	}
+
+	private static class Limiter {
+		private final long refillNanos;
+		private final long burstNanos;
+		private final Ticker ticker;
+		private final LoadingCache<String, AtomicLong> buckets;
+
+		Limiter(int burst, long refillMillis, int maxEntries, int stripes, final Ticker ticker) {
+			if (burst < 1 || refillMillis < 1) {
+				throw new IllegalArgumentException("burst and refillMillis must be positive");
+			}
+			refillNanos = TimeUnit.MILLISECONDS.toNanos(refillMillis);
+			burstNanos = refillNanos * burst;
+			this.ticker = ticker;
+			buckets = CacheBuilder.newBuilder()
+					.ticker(ticker)
+					.concurrencyLevel(stripes)
+					.maximumSize(maxEntries)
+					.expireAfterAccess(burstNanos, TimeUnit.NANOSECONDS)
+					.build(new CacheLoader<String, AtomicLong>() {
+						@Override
+						public AtomicLong load(String key) {
+							// full now
+							return new AtomicLong(ticker.read());
+						}
+					});
+		}
+
+		boolean tryAcquire(String key) {
+			AtomicLong fullAt = buckets.getUnchecked(key);
+			long now = ticker.read();
+			while (true) {
+				long current = fullAt.get();
+				// taking a token moves the time the bucket is full again one refill ahead
+				long next = (current - now > 0 ? current : now) + refillNanos;
+				if (next - now > burstNanos) {
+					return false;
+				}
+				if (fullAt.compareAndSet(current, next)) {
+					return true;
+				}
+			}
+		}
+
+		void refund(String key) {
+			AtomicLong fullAt = buckets.getIfPresent(key);
+			if (fullAt == null) {
+				return;
+			}
+			long now = ticker.read();
+			while (true) {
+				long current = fullAt.get();
+				if (current - now <= 0) {
+					// already full
+					return;
+				}
+				if (fullAt.compareAndSet(current, current - refillNanos)) {
+					return;
+				}
+			}
+		}
+	}
+}
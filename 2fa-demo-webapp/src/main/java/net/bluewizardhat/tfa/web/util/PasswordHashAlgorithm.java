@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+/**
+ * A password hashing algorithm for the {@link PasswordHasher}. Hashes must be self describing: they carry the
+ * algorithm and the cost they were made with, so that hashes made with different algorithms or costs can be
+ * checked side by side and stale ones recognized.
+ *
+ * <p>Implementations are Spring components; the one to hash new passwords with is chosen by its name.
+ *
+ * @author bluewizardhat
+ */
+public interface PasswordHashAlgorithm {
+	/**
+	 * Name used to select the algorithm in the configuration.
+	 */
+	String getName();
+
+	/**
+	 * Lowest cost accepted when calibrating, regardless of how slow the hardware is.
+	 */
+	int getMinCost();
+
+	/**
+	 * Highest cost accepted when calibrating, regardless of how fast the hardware is.
+	 */
+	int getMaxCost();
+
+	/**
+	 * Memory in bytes one hash at the given cost needs, so that calibration can keep the hashes running in parallel
+	 * within the heap.
+	 */
+	long getMemoryBytes(int cost);
+
+	/**
+	 * Returns true if the hashed password was made by this algorithm.
+	 */
+	boolean handles(String hashedPassword);
+
+	/**
+	 * Returns the cost a hashed password made by this algorithm was hashed with.
+	 */
+	int getCost(String hashedPassword);
+
+	/**
+	 * Hashes a password with a new salt. Raising the cost by one should about double the time it takes.
+	 */
+	String hash(String password, int cost);
+
+	/**
+	 * Checks a password candidate against a hashed password made by this algorithm.
+	 */
+	boolean matches(String passwordCandidate, String hashedPassword);
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Hashes and checks passwords on a dedicated pool sized to the number of cores, so that the CPU bound hashing
+ * neither ties up the request threads of the servlet container nor runs more hashes in parallel than there are
+ * cores to run them.
+ *
+ * <p>New passwords are hashed with the configured {@link PasswordHashAlgorithm}. Unless a cost is configured the
+ * highest cost that hashes within the target time on this hardware is found at startup. The cost is also capped so
+ * that one hash per pool thread running in parallel needs at most a quarter of the maximum heap, which matters for
+ * memory hard algorithms like scrypt on fast hardware. Passwords can be checked
+ * against hashes made with any of the algorithms; {@link #needsRehash(String)} tells if a hash was made with
+ * another algorithm or a lower cost than new hashes are made with.
+ *
+ * <p>When the queue of the pool is full the returned future fails with a {@link RejectedExecutionException}.
+ *
+ * @author bluewizardhat
+ */
+@Slf4j
+@Component
+public class PasswordHasher {
+	private static final String CALIBRATION_PASSWORD = "correct horse battery staple";
+	private static final int HEAP_FRACTION = 4;
+
+	@Autowired
+	private List<PasswordHashAlgorithm> algorithms;
+
+	@Value("${password.hashing.algorithm}")
+	private String algorithmName;
+
+	@Value("${password.hashing.cost}")
+	private int cost;
+
+	@Value("${password.hashing.targetMillis}")
+	private long targetMillis;
+
+	@Value("${password.hashing.threads}")
+	private int threads;
+
+	@Value("${password.hashing.queueSize}")
+	private int queueSize;
+
+	private ListeningExecutorService executor;
+
+	private PasswordHashAlgorithm algorithm;
+
+	public PasswordHasher() {
+	}
+
+	/**
+	 * For use outside of Spring, initialized right away
+	 */
+	PasswordHasher(List<PasswordHashAlgorithm> algorithms, String algorithmName, int cost, long targetMillis, int threads, int queueSize) {
+		this.algorithms = algorithms;
+		this.algorithmName = algorithmName;
+		this.cost = cost;
+		this.targetMillis = targetMillis;
+		this.threads = threads;
+		this.queueSize = queueSize;
+		initialize();
+	}
+
+	@PostConstruct
+	public void initialize() {
+		algorithm = algorithm(algorithmName);
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		int maxCost = maxCostForMemory(algorithm, threads, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+		if (cost <= 0) {
+			cost = calibrate(algorithm, targetMillis, maxCost);
+		} else if (cost > maxCost) {
+			log.warn("Hashing cost {} with {} threads may need more than a quarter of the heap, at most {} fits", cost, threads, maxCost);
+		}
+		log.info("Hashing passwords with {} at cost {}", algorithm.getName(), cost);
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactoryBuilder().setNameFormat("password-hashing-%d").setDaemon(true).build());
+		executor = MoreExecutors.listeningDecorator(pool);
+
+		log.debug("PasswordHasher initialized, threads={}, queueSize={}", threads, queueSize);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the highest cost, at most the algorithm's maximum, at which the given number of hashes running in
+	 * parallel fit in the memory budget. Never lower than the algorithm's minimum cost.
+	 */
+	static int maxCostForMemory(PasswordHashAlgorithm algorithm, int threads, long budgetBytes) {
+		int cost = algorithm.getMaxCost();
+		while (cost > algorithm.getMinCost() && threads * algorithm.getMemoryBytes(cost) > budgetBytes) {
+			cost--;
+		}
+		return cost;
+	}
+
+	/**
+	 * Returns the highest cost between the minimum cost of the algorithm and maxCost that hashes a password in at
+	 * most the target time. Each step up in cost is expected to double the time.
+	 */
+	static int calibrate(PasswordHashAlgorithm algorithm, long targetMillis, int maxCost) {
+		int cost = algorithm.getMinCost();
+		long millis = time(algorithm, cost);
+		while (cost < maxCost && millis * 2 <= targetMillis) {
+			cost++;
+			millis = time(algorithm, cost);
+		}
+		log.debug("Calibrated {} to cost {} taking {}ms, targetMillis={}", algorithm.getName(), cost, millis, targetMillis);
+		return cost;
+	}
+
+	/**
+	 * Best of two runs, the first run at the lowest cost also warms up the code.
+	 */
+	private static long time(PasswordHashAlgorithm algorithm, int cost) {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < 2; i++) {
+			long start = System.nanoTime();
+			algorithm.hash(CALIBRATION_PASSWORD, cost);
+			best = Math.min(best, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+		return best;
+	}
+
+	/**
+	 * Returns true if the hash was made with another algorithm or a lower cost than new hashes, so the password
+	 * should be hashed again the next time it is known.
+	 */
+	public boolean needsRehash(@NonNull String hashedPassword) {
+		return !algorithm.handles(hashedPassword) || algorithm.getCost(hashedPassword) < cost;
+	}
+
+	/**
+	 * Hashes a password with a new salt.
+	 */
+	public ListenableFuture<String> hash(@NonNull final String password) {
+		return submit(new Callable<String>() {
+			@Override
+			public String call() {
+				return algorithm.hash(password, cost);
+			}
+		});
+	}
+
+	/**
+	 * Checks a password candidate against a hashed password made with any of the algorithms.
+	 */
+	public ListenableFuture<Boolean> matches(@NonNull final String passwordCandidate, @NonNull final String hashedPassword) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				for (PasswordHashAlgorithm candidateAlgorithm : algorithms) {
+					if (candidateAlgorithm.handles(hashedPassword)) {
+						return candidateAlgorithm.matches(passwordCandidate, hashedPassword);
+					}
+				}
+				log.warn("No password hash algorithm for hashed password");
+				return false;
+			}
+		});
+	}
+
+	private PasswordHashAlgorithm algorithm(String name) {
+		for (PasswordHashAlgorithm candidate : algorithms) {
+			if (candidate.getName().equals(name)) {
+				return candidate;
+			}
+		}
+		throw new IllegalArgumentException("Unknown password hashing algorithm " + name);
+	}
+
+	private <T> ListenableFuture<T> submit(Callable<T> task) {
+		try {
+			return executor.submit(task);
+		} catch (RejectedExecutionException e) {
+			log.debug("Password hashing queue full");
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+}
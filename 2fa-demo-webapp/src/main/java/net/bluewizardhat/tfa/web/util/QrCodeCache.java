@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import net.bluewizardhat.googleauth.qr.QrRenderPipeline;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Bounded cache of encoded QR code images keyed by the enrollment qrUuid and {@link QrImage}, so that repeated
+ * requests for the same image (browser retries, prefetchers) do not render it again.
+ *
+ * <p>Images can be pre-rendered on a bounded {@link QrRenderPipeline} as soon as the secret is generated; a request
+ * arriving while the image is still being rendered waits for it rather than rendering it again.
+ *
+ * @author bluewizardhat
+ */
+@Slf4j
+@Component
+public class QrCodeCache {
+	@Value("${qrcode.cache.maxSize}")
+	private int maxSize;
+
+	@Value("${qrcode.cache.expireSeconds}")
+	private int expireSeconds;
+
+	@Value("${qrcode.render.threads}")
+	private int renderThreads;
+
+	@Value("${qrcode.render.queueSize}")
+	private int renderQueueSize;
+
+	private Cache<String, ListenableFuture<byte[]>> cache;
+
+	private QrRenderPipeline pipeline;
+
+	@PostConstruct
+	public void initialize() {
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+				.build();
+		pipeline = new QrRenderPipeline(renderThreads, renderQueueSize);
+
+		log.debug("QrCodeCache initialized, maxSize={}, expireSeconds={}, renderThreads={}, renderQueueSize={}",
+				maxSize, expireSeconds, renderThreads, renderQueueSize);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pipeline.close();
+	}
+
+	/**
+	 * Starts rendering an image in the background unless it is already cached. If the render queue is full the
+	 * image is simply rendered when it is requested.
+	 */
+	public void prerender(String qrUuid, QrImage image, String issuer, String accountName, String secret) {
+		String key = key(qrUuid, image);
+		if (cache.getIfPresent(key) != null) {
+			return;
+		}
+
+		ListenableFuture<byte[]> future;
+		try {
+			future = pipeline.submit(issuer, accountName, secret, image.getOptions(), image.getFormat());
+		} catch (RejectedExecutionException e) {
+			log.debug("Render queue full, not pre-rendering {}", key);
+			return;
+		}
+		cache.asMap().putIfAbsent(key, future);
+	}
+
+	/**
+	 * Returns the cached image for a qrUuid, waiting for it if it is being pre-rendered and rendering it if it is
+	 * not cached. Concurrent requests for the same image only render it once.
+	 */
+	public byte[] get(String qrUuid, final QrImage image, final String issuer, final String accountName, final String secret) throws IOException {
+		String key = key(qrUuid, image);
+		ListenableFuture<byte[]> future;
+		try {
+			future = cache.get(key, new Callable<ListenableFuture<byte[]>>() {
+				@Override
+				public ListenableFuture<byte[]> call() throws IOException {
+					return Futures.immediateFuture(QrRenderPipeline.render(issuer, accountName, secret, image.getOptions(), image.getFormat()));
+				}
+			});
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+			throw Throwables.propagate(e.getCause());
+		}
+
+		try {
+			return Futures.getChecked(future, IOException.class);
+		} catch (IOException | RuntimeException e) {
+			// don't keep a failed background render around
+			cache.asMap().remove(key, future);
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes all images for a qrUuid, if any.
+	 */
+	public void invalidate(String qrUuid) {
+		if (qrUuid != null) {
+			for (QrImage image : QrImage.values()) {
+				cache.invalidate(key(qrUuid, image));
+			}
+		}
+	}
+
+	private static String key(String qrUuid, QrImage image) {
+		return qrUuid + ':' + image.name();
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+import net.bluewizardhat.googleauth.qr.QrFormat;
+import net.bluewizardhat.googleauth.qr.QrOptions;
+
+/**
+ * The QR code images served during enrollment
+ *
+ * @author bluewizardhat
+ */
+public enum QrImage {
+	/**
+	 * 250x250 PNG as served by the original /qr/{uuid}.png url
+	 */
+	LEGACY_PNG(QrFormat.PNG, QrOptions.DEFAULT),
+	/**
+	 * PNG with one pixel per module, scaled by the browser
+	 */
+	PNG(QrFormat.PNG, QrOptions.builder().size(0).build()),
+	/**
+	 * SVG, scaled by the browser
+	 */
+	SVG(QrFormat.SVG, QrOptions.builder().size(0).build());
+
+	private final QrFormat format;
+	private final QrOptions options;
+
+	private QrImage(QrFormat format, QrOptions options) {
+		this.format = format;
+		this.options = options;
+	}
+
+	public String getContentType() {
+		return format.getContentType();
+	}
+
+	public QrFormat getFormat() {
+		return format;
+	}
+
+	public QrOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * Picks SVG if the client accepts it, otherwise PNG.
+	 */
+	public static QrImage fromAccept(String accept) {
+		return accept != null && accept.contains(QrFormat.SVG.getContentType()) ? SVG : PNG;
+	}
+}
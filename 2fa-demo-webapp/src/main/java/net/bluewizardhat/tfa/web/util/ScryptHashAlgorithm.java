@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.tfa.web.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * scrypt (RFC 7914) password hashing, a memory hard alternative to BCrypt. The cost is the log2 of N with r=8 and
+ * p=1, so each hash needs 2^cost KiB of memory; at cost 16 that is 64 MiB per hash running in parallel.
+ *
+ * <p>Hashes are stored as {@code $scrypt$ln=16,r=8,p=1$<salt>$<key>} with unpadded base64 salt and key.
+ *
+ * @author bluewizardhat
+ */
+@Component
+public class ScryptHashAlgorithm implements PasswordHashAlgorithm {
+	private static final String PREFIX = "$scrypt$";
+	private static final BaseEncoding BASE64 = BaseEncoding.base64().omitPadding();
+	private static final int R = 8;
+	private static final int P = 1;
+	private static final int SALT_LENGTH = 16;
+	private static final int KEY_LENGTH = 32;
+
+	private final SecureRandom random = new SecureRandom();
+
+	@Override
+	public String getName() {
+		return "scrypt";
+	}
+
+	@Override
+	public int getMinCost() {
+		return 14;
+	}
+
+	@Override
+	public int getMaxCost() {
+		return 20;
+	}
+
+	@Override
+	public long getMemoryBytes(int cost) {
+		// V holds N blocks of 128 * r bytes
+		return 128L * R * (1L << cost);
+	}
+
+	@Override
+	public boolean handles(String hashedPassword) {
+		return hashedPassword.startsWith(PREFIX);
+	}
+
+	@Override
+	public int getCost(String hashedPassword) {
+		return Integer.parseInt(parameter(hashedPassword.split("\\$")[2], "ln"));
+	}
+
+	@Override
+	public String hash(String password, int cost) {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		byte[] key = scrypt(password.getBytes(StandardCharsets.UTF_8), salt, 1 << cost, R, P, KEY_LENGTH);
+		return PREFIX + "ln=" + cost + ",r=" + R + ",p=" + P + "$" + BASE64.encode(salt) + "$" + BASE64.encode(key);
+	}
+
+	@Override
+	public boolean matches(String passwordCandidate, String hashedPassword) {
+		String[] parts = hashedPassword.split("\\$");
+		if (parts.length != 5) {
+			throw new IllegalArgumentException("Invalid scrypt hash");
+		}
+		int n = 1 << Integer.parseInt(parameter(parts[2], "ln"));
+		int r = Integer.parseInt(parameter(parts[2], "r"));
+		int p = Integer.parseInt(parameter(parts[2], "p"));
+		byte[] salt = BASE64.decode(parts[3]);
+		byte[] key = BASE64.decode(parts[4]);
+
+		byte[] candidate = scrypt(passwordCandidate.getBytes(StandardCharsets.UTF_8), salt, n, r, p, key.length);
+		return MessageDigest.isEqual(candidate, key);
+	}
+
+	private static String parameter(String parameters, String name) {
+		for (String parameter : parameters.split(",")) {
+			if (parameter.startsWith(name + "=")) {
+				return parameter.substring(name.length() + 1);
+			}
+		}
+		throw new IllegalArgumentException("Missing scrypt parameter " + name);
+	}
+
+	/**
+	 * The scrypt key derivation function. n must be a power of 2.
+	 */
+	static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int keyLength) {
+		Mac mac;
+		try {
+			mac = Mac.getInstance("HmacSHA256");
+			// HMAC pads the key with zeros, so an empty key is the same as a single zero byte which unlike an
+			// empty key is accepted by SecretKeySpec
+			mac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, "HmacSHA256"));
+		} catch (GeneralSecurityException e) {
+			throw Throwables.propagate(e);
+		}
+
+		int blockSize = 128 * r;
+		byte[] b = pbkdf2(mac, salt, p * blockSize);
+		int[] v = new int[32 * r * n];
+		int[] xy = new int[64 * r];
+		int[] scratch = new int[32];
+		for (int i = 0; i < p; i++) {
+			roMix(b, i * blockSize, r, n, v, xy, scratch);
+		}
+		return pbkdf2(mac, b, keyLength);
+	}
+
+	/**
+	 * PBKDF2-HMAC-SHA256 with a single iteration, which is all scrypt uses.
+	 */
+	private static byte[] pbkdf2(Mac mac, byte[] salt, int keyLength) {
+		byte[] key = new byte[keyLength];
+		for (int block = 1, offset = 0; offset < keyLength; block++, offset += 32) {
+			mac.update(salt);
+			mac.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block });
+			System.arraycopy(mac.doFinal(), 0, key, offset, Math.min(32, keyLength - offset));
+		}
+		return key;
+	}
+
+	private static void roMix(byte[] b, int offset, int r, int n, int[] v, int[] xy, int[] scratch) {
+		int words = 32 * r;
+		for (int k = 0; k < words; k++) {
+			int i = offset + k * 4;
+			xy[k] = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+		}
+
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(xy, 0, v, i * words, words);
+			blockMix(xy, r, scratch);
+		}
+
+		for (int i = 0; i < n; i++) {
+			int j = xy[(2 * r - 1) * 16] & (n - 1);
+			for (int k = 0; k < words; k++) {
+				xy[k] ^= v[j * words + k];
+			}
+			blockMix(xy, r, scratch);
+		}
+
+		for (int k = 0; k < words; k++) {
+			int i = offset + k * 4;
+			b[i] = (byte) xy[k];
+			b[i + 1] = (byte) (xy[k] >>> 8);
+			b[i + 2] = (byte) (xy[k] >>> 16);
+			b[i + 3] = (byte) (xy[k] >>> 24);
+		}
+	}
+
+	/**
+	 * BlockMix of the first 32r words of xy, using the second 32r words as the output buffer.
+	 */
+	private static void blockMix(int[] xy, int r, int[] scratch) {
+		int words = 32 * r;
+		System.arraycopy(xy, (2 * r - 1) * 16, scratch, 0, 16);
+		for (int i = 0; i < 2 * r; i++) {
+			for (int k = 0; k < 16; k++) {
+				scratch[k] ^= xy[i * 16 + k];
+			}
+			salsa20_8(scratch);
+			// even blocks go to the first half of the output, odd blocks to the second half
+			System.arraycopy(scratch, 0, xy, words + ((i >> 1) + (i & 1) * r) * 16, 16);
+		}
+		System.arraycopy(xy, words, xy, 0, words);
+	}
+
+	/**
+	 * Salsa20/8 core on the first 16 words of x, using the next 16 words to keep the input.
+	 */
+	private static void salsa20_8(int[] x) {
+		System.arraycopy(x, 0, x, 16, 16);
+		for (int i = 0; i < 8; i += 2) {
+			x[4] ^= Integer.rotateLeft(x[0] + x[12], 7);
+			x[8] ^= Integer.rotateLeft(x[4] + x[0], 9);
+			x[12] ^= Integer.rotateLeft(x[8] + x[4], 13);
+			x[0] ^= Integer.rotateLeft(x[12] + x[8], 18);
+			x[9] ^= Integer.rotateLeft(x[5] + x[1], 7);
+			x[13] ^= Integer.rotateLeft(x[9] + x[5], 9);
+			x[1] ^= Integer.rotateLeft(x[13] + x[9], 13);
+			x[5] ^= Integer.rotateLeft(x[1] + x[13], 18);
+			x[14] ^= Integer.rotateLeft(x[10] + x[6], 7);
+			x[2] ^= Integer.rotateLeft(x[14] + x[10], 9);
+			x[6] ^= Integer.rotateLeft(x[2] + x[14], 13);
+			x[10] ^= Integer.rotateLeft(x[6] + x[2], 18);
+			x[3] ^= Integer.rotateLeft(x[15] + x[11], 7);
+			x[7] ^= Integer.rotateLeft(x[3] + x[15], 9);
+			x[11] ^= Integer.rotateLeft(x[7] + x[3], 13);
+			x[15] ^= Integer.rotateLeft(x[11] + x[7], 18);
+
+			x[1] ^= Integer.rotateLeft(x[0] + x[3], 7);
+			x[2] ^= Integer.rotateLeft(x[1] + x[0], 9);
+			x[3] ^= Integer.rotateLeft(x[2] + x[1], 13);
+			x[0] ^= Integer.rotateLeft(x[3] + x[2], 18);
+			x[6] ^= Integer.rotateLeft(x[5] + x[4], 7);
+			x[7] ^= Integer.rotateLeft(x[6] + x[5], 9);
+			x[4] ^= Integer.rotateLeft(x[7] + x[6], 13);
+			x[5] ^= Integer.rotateLeft(x[4] + x[7], 18);
+			x[11] ^= Integer.rotateLeft(x[10] + x[9], 7);
+			x[8] ^= Integer.rotateLeft(x[11] + x[10], 9);
+			x[9] ^= Integer.rotateLeft(x[8] + x[11], 13);
+			x[10] ^= Integer.rotateLeft(x[9] + x[8], 18);
+			x[12] ^= Integer.rotateLeft(x[15] + x[14], 7);
+			x[13] ^= Integer.rotateLeft(x[12] + x[15], 9);
+			x[14] ^= Integer.rotateLeft(x[13] + x[12], 13);
+			x[15] ^= Integer.rotateLeft(x[14] + x[13], 18);
+		}
+		for (int k = 0; k < 16; k++) {
+			x[k] += x[16 + k];
+		}
+	}
+}
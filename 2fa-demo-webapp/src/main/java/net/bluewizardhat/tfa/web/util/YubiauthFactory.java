@@ -22,9 +22,24 @@
 
 package net.bluewizardhat.tfa.web.util;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import lombok.extern.slf4j.Slf4j;
+import net.bluewizardhat.yubiauth.FileCounterStore;
+import net.bluewizardhat.yubiauth.HedgedYubicoClient;
+import net.bluewizardhat.yubiauth.LocalYubicoClient;
+import net.bluewizardhat.yubiauth.PooledHttpTransport;
+import net.bluewizardhat.yubiauth.ServerStats;
 import net.bluewizardhat.yubiauth.Yubiauth;
 
 import org.springframework.beans.factory.annotation.Value;
@@ -41,6 +56,9 @@ import com.yubico.client.v2.YubicoClient;
 @Component
 public class YubiauthFactory {
 	private Yubiauth yubiAuth;
+	private HedgedYubicoClient hedgedClient;
+	private ExecutorService executor;
+	private ExecutorService serverExecutor;
 
 	@Value("${yubico.clientId}")
 	private Integer clientId;
@@ -48,16 +66,90 @@ public class YubiauthFactory {
 	@Value("${yubico.apikey}")
 	private String apiKey;
 
+	@Value("${yubico.wsapiUrls}")
+	private String[] wsapiUrls;
+
+	@Value("${yubico.http.connectTimeoutMillis}")
+	private int connectTimeoutMillis;
+
+	@Value("${yubico.http.readTimeoutMillis}")
+	private int readTimeoutMillis;
+
+	@Value("${yubico.http.maxConnectionsPerHost}")
+	private int maxConnectionsPerHost;
+
+	@Value("${yubico.local.keyFile}")
+	private String localKeyFile;
+
+	@Value("${yubico.local.counterFile}")
+	private String localCounterFile;
+
+	@Value("${yubico.verify.threads}")
+	private int threads;
+
+	@Value("${yubico.verify.queueSize}")
+	private int queueSize;
+
+	@Value("${yubico.verify.timeoutMillis}")
+	private long timeoutMillis;
+
+	@Value("${yubico.verify.memoMillis}")
+	private long memoMillis;
+
 	@PostConstruct
-	public void initialize() {
-		YubicoClient yubicoClient = YubicoClient.getClient(clientId, apiKey);
-		// could set up more stuff with the client here .. for example override the default validation servers or other stuff
-		yubiAuth = new Yubiauth(yubicoClient);
+	public void initialize() throws IOException {
+		executor = Yubiauth.newBoundedExecutor(threads, queueSize);
+
+		if (!localKeyFile.isEmpty()) {
+			LocalYubicoClient localClient = new LocalYubicoClient();
+			try (BufferedReader reader = Files.newBufferedReader(Paths.get(localKeyFile), StandardCharsets.UTF_8)) {
+				int count = localClient.loadKeys(reader);
+				log.info("Validating Yubico OTPs locally with {} keys from {}", count, localKeyFile);
+			}
+			String counterFile = localCounterFile.isEmpty() ? localKeyFile + ".counters" : localCounterFile;
+			FileCounterStore counterStore = new FileCounterStore(Paths.get(counterFile));
+			int restored = counterStore.restore(localClient);
+			localClient.setCounterStore(counterStore);
+			log.info("Restored counters of {} keys from {}", restored, counterFile);
+			yubiAuth = new Yubiauth(localClient, executor, timeoutMillis, memoMillis);
+			return;
+		}
+
+		String[] urls = wsapiUrls.length > 0 ? wsapiUrls : YubicoClient.getClient(clientId, apiKey).getWsapiUrls();
+		// each verification may have a hedged request outstanding
+		serverExecutor = Yubiauth.newBoundedExecutor(2 * threads, queueSize);
+		PooledHttpTransport transport = new PooledHttpTransport(connectTimeoutMillis, readTimeoutMillis, maxConnectionsPerHost);
+		int keepAliveConnections = PooledHttpTransport.keepAliveConnectionsPerHost();
+		if (maxConnectionsPerHost > keepAliveConnections) {
+			log.warn("yubico.http.maxConnectionsPerHost={} is above http.maxConnections={}, connections beyond {} per server "
+					+ "will not be kept alive; start with -Dhttp.maxConnections={}", maxConnectionsPerHost, keepAliveConnections,
+					keepAliveConnections, maxConnectionsPerHost);
+		}
+		hedgedClient = HedgedYubicoClient.create(clientId, apiKey, urls, serverExecutor, transport);
+		yubiAuth = new Yubiauth(hedgedClient, executor, timeoutMillis, memoMillis);
 
-		log.debug("YubicoClient initialized, clientId={}, apiKey={}", clientId, apiKey);
+		log.debug("YubicoClient initialized, clientId={}, apiKey={}, urls={}, threads={}, queueSize={}, timeoutMillis={}, memoMillis={}",
+				clientId, apiKey, urls, threads, queueSize, timeoutMillis, memoMillis);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		log.info("Yubico OTP pre-check rejections: {}", yubiAuth.getPrecheck().getRejections());
+		executor.shutdownNow();
+		if (hedgedClient != null) {
+			log.info("Yubico server statistics: {}", hedgedClient.getServerStats());
+			serverExecutor.shutdownNow();
+		}
 	}
 
 	public Yubiauth getYubiauth() {
 		return yubiAuth;
 	}
+
+	/**
+	 * Request count, hedges, failures, latency percentiles and circuit state for each Yubico validation server
+	 */
+	public List<ServerStats> getServerStats() {
+		return hedgedClient != null ? hedgedClient.getServerStats() : Collections.<ServerStats>emptyList();
+	}
 }
@@ -149,6 +149,16 @@
 		});
 	}
 
+	// failures that are not about the credentials, the user can try again later
+	var retryMessages = {
+		"too.many.attempts": "Too many login attempts, please wait a little before trying again",
+		"server.busy": "The server is busy, please try again",
+		"request.timeout": "The server took too long to answer, please try again"
+	};
+	function failureMessage(data, defaultMessage) {
+		return retryMessages[data.reason] || defaultMessage;
+	}
+
 	function clearUserInfo() {
 		viewModel.userInfo.loggedIn(false);
 		viewModel.userInfo.userName('');
@@ -209,7 +219,7 @@
 					authenticatedSuccess(data);
 					viewModel.userInfo.successMsg("User successfully created");
 				} else {
-					viewModel.errorMsg("Error creating user");
+					viewModel.errorMsg(failureMessage(data, "Error creating user"));
 					viewModel.errorState(true);
 				}
 			});
@@ -239,7 +249,7 @@
 					viewModel.loginPage.authenticatorAvailable(data.googleAuthAvailable === "true");
 					viewModel.loginPage.yubiAvailable(data.yubiAuthAvailable === "true");
 				} else {
-					viewModel.errorMsg("Login failed");
+					viewModel.errorMsg(failureMessage(data, "Login failed"));
 					viewModel.errorState(true);
 				}
 			});
@@ -276,7 +286,7 @@
 					authenticatedSuccess(data);
 					viewModel.userInfo.successMsg("Password successfully changed");
 				} else {
-					viewModel.errorMsg("Password did not match");
+					viewModel.errorMsg(failureMessage(data, "Password did not match"));
 					viewModel.errorState(true);
 				}
 			});
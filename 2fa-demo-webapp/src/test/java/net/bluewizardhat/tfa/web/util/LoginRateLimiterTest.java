@@ -0,0 +1,109 @@
+package net.bluewizardhat.tfa.web.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class LoginRateLimiterTest {
+	private static final String ADDRESS = "10.0.0.1";
+
+	private final FakeTicker ticker = new FakeTicker();
+
+	@Test
+	public void tryAcquire_burstThenRefill() {
+		LoginRateLimiter limiter = new LoginRateLimiter(3, 1000, 100, 10, 100, 4, ticker);
+
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+
+		// one token back after each refill interval, not before
+		ticker.advance(999);
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+		ticker.advance(1);
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+
+		// a long wait refills the bucket but not beyond the burst
+		ticker.advance(60000);
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+	}
+
+	@Test
+	public void tryAcquire_userBucketsAreIndependent() {
+		LoginRateLimiter limiter = new LoginRateLimiter(2, 1000, 100, 10, 100, 4, ticker);
+
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+		// same address, another user
+		assertTrue(limiter.tryAcquire("bob", ADDRESS));
+		// same user from another address is still limited
+		assertFalse(limiter.tryAcquire("alice", "10.0.0.2"));
+	}
+
+	@Test
+	public void tryAcquire_addressBucketsAreIndependent() {
+		LoginRateLimiter limiter = new LoginRateLimiter(100, 10, 2, 1000, 100, 4, ticker);
+
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("bob", ADDRESS));
+		// the address is out of tokens whichever user is tried
+		assertFalse(limiter.tryAcquire("carol", ADDRESS));
+		assertTrue(limiter.tryAcquire("carol", "10.0.0.2"));
+	}
+
+	@Test
+	public void refund_givesTokensBack() {
+		LoginRateLimiter limiter = new LoginRateLimiter(2, 1000, 2, 1000, 100, 4, ticker);
+
+		// password step and code step of a twofactor login, twice
+		for (int i = 0; i < 2; i++) {
+			assertTrue(limiter.tryAcquire("alice", ADDRESS));
+			limiter.refund("alice", ADDRESS);
+			assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		}
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+
+		// refunding a full bucket does not raise it above the burst
+		ticker.advance(60000);
+		limiter.refund("alice", ADDRESS);
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+	}
+
+	@Test
+	public void idleBucketsAreEvicted() {
+		// a single entry per limiter, so another user evicts the first
+		LoginRateLimiter limiter = new LoginRateLimiter(1, 1000, 100, 10, 1, 1, ticker);
+
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+		assertFalse(limiter.tryAcquire("alice", ADDRESS));
+		assertTrue(limiter.tryAcquire("bob", ADDRESS));
+		// evicted, a new bucket is full
+		assertTrue(limiter.tryAcquire("alice", ADDRESS));
+	}
+
+	private static class FakeTicker extends Ticker {
+		private long nanos = 1234567890L;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+
+		void advance(long millis) {
+			nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+	}
+}
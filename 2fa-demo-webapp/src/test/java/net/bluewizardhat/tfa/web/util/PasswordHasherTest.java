@@ -0,0 +1,164 @@
+package net.bluewizardhat.tfa.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PasswordHasherTest {
+	private final BCryptHashAlgorithm bcrypt = new BCryptHashAlgorithm();
+	private final ScryptHashAlgorithm scrypt = new ScryptHashAlgorithm();
+	private final List<PasswordHashAlgorithm> algorithms = Arrays.<PasswordHashAlgorithm>asList(bcrypt, scrypt);
+
+	private PasswordHasher hasher;
+
+	@After
+	public void tearDown() {
+		if (hasher != null) {
+			hasher.shutdown();
+		}
+	}
+
+	@Test
+	public void bcrypt_roundTripAndFormat() {
+		String hashed = bcrypt.hash("correct horse", 4);
+
+		assertTrue(hashed.startsWith("$2a$04$"));
+		assertTrue(bcrypt.handles(hashed));
+		assertFalse(bcrypt.handles(scrypt.hash("correct horse", 4)));
+		assertEquals(4, bcrypt.getCost(hashed));
+		assertTrue(bcrypt.matches("correct horse", hashed));
+		assertFalse(bcrypt.matches("correct horsE", hashed));
+	}
+
+	@Test
+	public void hashAndMatch_acrossAlgorithms() throws Exception {
+		hasher = new PasswordHasher(algorithms, "scrypt", 10, 0, 1, 10);
+
+		String hashed = hasher.hash("pw").get();
+		assertTrue(scrypt.handles(hashed));
+		assertTrue(hasher.matches("pw", hashed).get());
+		assertFalse(hasher.matches("wrong", hashed).get());
+		// hashes made with the other algorithm still verify
+		assertTrue(hasher.matches("pw", bcrypt.hash("pw", 4)).get());
+		assertFalse(hasher.matches("pw", "unknown format").get());
+	}
+
+	@Test
+	public void needsRehash_otherAlgorithmOrLowerCost() {
+		hasher = new PasswordHasher(algorithms, "bcrypt", 5, 0, 1, 10);
+
+		assertTrue(hasher.needsRehash(bcrypt.hash("pw", 4)));
+		assertFalse(hasher.needsRehash(bcrypt.hash("pw", 5)));
+		// never lowers the cost
+		assertFalse(hasher.needsRehash(bcrypt.hash("pw", 6)));
+		assertTrue(hasher.needsRehash(scrypt.hash("pw", 12)));
+	}
+
+	@Test
+	public void calibrate_clampsToCostBounds() {
+		// too slow for the target even at the minimum cost, the minimum is used anyway
+		PasswordHashAlgorithm slow = new FakeAlgorithm(10);
+		assertEquals(slow.getMinCost(), PasswordHasher.calibrate(slow, 5, slow.getMaxCost()));
+		PasswordHashAlgorithm instant = new FakeAlgorithm(0);
+		// everything is fast enough, but not beyond the maximum
+		assertEquals(instant.getMaxCost(), PasswordHasher.calibrate(instant, 1000, instant.getMaxCost()));
+	}
+
+	@Test
+	public void calibrate_highestCostWithinTarget() {
+		// 10ms at cost 1, doubling with each step: 2 takes 20ms, 3 takes 40ms
+		assertEquals(2, PasswordHasher.calibrate(new FakeAlgorithm(10), 30, 4));
+	}
+
+	@Test
+	public void calibrate_cappedByMemory() {
+		PasswordHashAlgorithm instant = new FakeAlgorithm(0);
+		// 4 threads at 4 MiB per hash (cost 3) fit in 16 MiB, at 8 MiB (cost 4) they do not
+		int maxCost = PasswordHasher.maxCostForMemory(instant, 4, 16L << 20);
+		assertEquals(3, maxCost);
+		assertEquals(3, PasswordHasher.calibrate(instant, 1000, maxCost));
+		// never below the minimum, however little memory there is
+		assertEquals(instant.getMinCost(), PasswordHasher.maxCostForMemory(instant, 4, 0));
+		assertEquals(instant.getMaxCost(), PasswordHasher.maxCostForMemory(instant, 1, Long.MAX_VALUE));
+		// scrypt at its maximum cost needs 1 GiB per hash
+		assertEquals(18, PasswordHasher.maxCostForMemory(scrypt, 4, 1L << 30));
+	}
+
+	@Test
+	public void needsRehash_atCalibratedBounds() {
+		PasswordHashAlgorithm instant = new FakeAlgorithm(0);
+		hasher = new PasswordHasher(Arrays.<PasswordHashAlgorithm>asList(instant), "fake", 0, 1000, 1, 10);
+
+		assertFalse(hasher.needsRehash(instant.hash("pw", instant.getMaxCost())));
+		assertTrue(hasher.needsRehash(instant.hash("pw", instant.getMinCost())));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownAlgorithm() {
+		new PasswordHasher(algorithms, "md5", 10, 0, 1, 10);
+	}
+
+	/**
+	 * Takes the given number of milliseconds and 1 MiB at cost 1, doubling with each step up to cost 4
+	 */
+	private static class FakeAlgorithm implements PasswordHashAlgorithm {
+		private final long baseMillis;
+
+		FakeAlgorithm(long baseMillis) {
+			this.baseMillis = baseMillis;
+		}
+
+		@Override
+		public String getName() {
+			return "fake";
+		}
+
+		@Override
+		public int getMinCost() {
+			return 1;
+		}
+
+		@Override
+		public int getMaxCost() {
+			return 4;
+		}
+
+		@Override
+		public long getMemoryBytes(int cost) {
+			return 1L << (19 + cost);
+		}
+
+		@Override
+		public boolean handles(String hashedPassword) {
+			return hashedPassword.startsWith("fake:");
+		}
+
+		@Override
+		public int getCost(String hashedPassword) {
+			return Integer.parseInt(hashedPassword.split(":")[1]);
+		}
+
+		@Override
+		public String hash(String password, int cost) {
+			if (baseMillis > 0) {
+				try {
+					Thread.sleep(baseMillis << (cost - 1));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return "fake:" + cost + ":" + password;
+		}
+
+		@Override
+		public boolean matches(String passwordCandidate, String hashedPassword) {
+			return hashedPassword.equals("fake:" + getCost(hashedPassword) + ":" + passwordCandidate);
+		}
+	}
+}
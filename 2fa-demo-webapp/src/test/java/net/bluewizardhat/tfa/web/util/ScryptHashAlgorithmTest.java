@@ -0,0 +1,69 @@
+package net.bluewizardhat.tfa.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+public class ScryptHashAlgorithmTest {
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	private final ScryptHashAlgorithm scrypt = new ScryptHashAlgorithm();
+
+	@Test
+	public void scrypt_rfc7914TestVectors() {
+		assertEquals("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+				+ "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906",
+				HEX.encode(ScryptHashAlgorithm.scrypt(bytes(""), bytes(""), 16, 1, 1, 64)));
+		assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+				+ "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+				HEX.encode(ScryptHashAlgorithm.scrypt(bytes("password"), bytes("NaCl"), 1024, 8, 16, 64)));
+		assertEquals("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+				+ "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887",
+				HEX.encode(ScryptHashAlgorithm.scrypt(bytes("pleaseletmein"), bytes("SodiumChloride"), 16384, 8, 1, 64)));
+	}
+
+	@Test
+	public void hash_roundTripAndFormat() {
+		String hashed = scrypt.hash("correct horse", 10);
+
+		assertTrue(hashed.matches("\\$scrypt\\$ln=10,r=8,p=1\\$[A-Za-z0-9+/]{22}\\$[A-Za-z0-9+/]{43}"));
+		assertTrue(hashed.length() <= 128);
+		assertTrue(scrypt.handles(hashed));
+		assertEquals(10, scrypt.getCost(hashed));
+		assertTrue(scrypt.matches("correct horse", hashed));
+		assertFalse(scrypt.matches("correct horsE", hashed));
+		// new salt every time
+		assertNotEquals(hashed, scrypt.hash("correct horse", 10));
+	}
+
+	@Test
+	public void matches_usesParametersFromHash() {
+		// r=1 and p=2 instead of the defaults, with a 16 byte key
+		String hashed = "$scrypt$ln=4,r=1,p=2$" + BaseEncoding.base64().omitPadding().encode(bytes("salt"))
+				+ "$" + BaseEncoding.base64().omitPadding().encode(ScryptHashAlgorithm.scrypt(bytes("pw"), bytes("salt"), 16, 1, 2, 16));
+		assertEquals(4, scrypt.getCost(hashed));
+		assertTrue(scrypt.matches("pw", hashed));
+		assertFalse(scrypt.matches("pw2", hashed));
+	}
+
+	@Test
+	public void handles_onlyScryptHashes() {
+		assertFalse(scrypt.handles(new BCryptHashAlgorithm().hash("pw", 4)));
+		assertFalse(scrypt.handles("plain"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void matches_malformedHash() {
+		scrypt.matches("pw", "$scrypt$ln=10,r=8,p=1$onlysalt");
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import java.util.Arrays;
+
+import lombok.NonNull;
+
+/**
+ * Base32 (<a href="https://tools.ietf.org/html/rfc4648#section-6">RFC 4648</a>) codec specialized for shared secrets.
+ *
+ * <p>Decoding accepts both the pretty and non-pretty format (any case, spaces anywhere, optional trailing padding)
+ * and writes straight into a caller supplied array in a single pass without creating intermediate Strings.
+ *
+ * @author bluewizardhat
+ */
+public class Base32 {
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+	private static final byte[] DECODE_TABLE = new byte[128];
+
+	static {
+		Arrays.fill(DECODE_TABLE, (byte) -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			DECODE_TABLE[ALPHABET[i]] = (byte) i;
+			DECODE_TABLE[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+		}
+	}
+
+	/**
+	 * Utility class. Don't instantiate it.
+	 */
+	private Base32() { }
+
+	/**
+	 * Returns the number of bytes the secret decodes to.
+	 */
+	public static int decodedLength(@NonNull CharSequence secret) {
+		int chars = 0;
+		int length = secret.length();
+		for (int i = 0; i < length; i++) {
+			char c = secret.charAt(i);
+			if (c != ' ' && c != '=') {
+				chars++;
+			}
+		}
+		return chars * 5 / 8;
+	}
+
+	/**
+	 * Decodes a secret into an array.
+	 * @param secret the secret in pretty or non-pretty format
+	 * @param out array to decode into, must hold at least {@link #decodedLength} bytes
+	 * @return the number of bytes decoded
+	 * @throws IllegalArgumentException if the secret contains characters that are not valid base32
+	 */
+	public static int decode(@NonNull CharSequence secret, @NonNull byte[] out) {
+		int buffer = 0;
+		int bits = 0;
+		int written = 0;
+		boolean padding = false;
+		int length = secret.length();
+
+		for (int i = 0; i < length; i++) {
+			char c = secret.charAt(i);
+			if (c == ' ') {
+				continue;
+			}
+			if (c == '=') {
+				padding = true;
+				continue;
+			}
+			int value = c < 128 ? DECODE_TABLE[c] : -1;
+			if (value < 0 || padding) {
+				throw new IllegalArgumentException("Unrecognized character in secret at index " + i);
+			}
+
+			buffer = (buffer << 5) | value;
+			bits += 5;
+			if (bits >= 8) {
+				bits -= 8;
+				if (written == out.length) {
+					throw new IllegalArgumentException("Output array too small for secret");
+				}
+				out[written++] = (byte) (buffer >> bits);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Decodes a secret into a new array.
+	 * @param secret the secret in pretty or non-pretty format
+	 * @throws IllegalArgumentException if the secret contains characters that are not valid base32
+	 */
+	public static byte[] decode(@NonNull CharSequence secret) {
+		byte[] out = new byte[decodedLength(secret)];
+		decode(secret, out);
+		return out;
+	}
+
+	/**
+	 * Returns the length of the pretty format of a non-pretty secret of the given length.
+	 */
+	public static int prettifiedLength(int secretLength) {
+		return secretLength == 0 ? 0 : secretLength + (secretLength / 4) - 1;
+	}
+
+	/**
+	 * Writes the pretty format of a non-pretty secret (lower case, in groups of 4 separated by spaces) into an array.
+	 * @param secret the secret in non-pretty format, its length must be divisible by 4
+	 * @param out array to write into, must hold at least {@link #prettifiedLength} chars
+	 * @return the number of chars written
+	 */
+	public static int prettify(@NonNull CharSequence secret, @NonNull char[] out) {
+		int length = secret.length();
+		if (length % 4 != 0) {
+			throw new IllegalArgumentException("secret should be divisible by 4");
+		}
+		if (out.length < prettifiedLength(length)) {
+			throw new IllegalArgumentException("Output array too small for secret");
+		}
+
+		int written = 0;
+		for (int i = 0; i < length; i++) {
+			if (i != 0 && i % 4 == 0) {
+				out[written++] = ' ';
+			}
+			out[written++] = Character.toLowerCase(secret.charAt(i));
+		}
+		return written;
+	}
+}
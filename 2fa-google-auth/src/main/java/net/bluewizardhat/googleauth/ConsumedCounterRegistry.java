@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.NonNull;
+
+/**
+ * Keeps track of which time steps have already been used to authenticate, so that a code cannot be accepted twice
+ * (see <a href="https://tools.ietf.org/html/rfc6238#section-5.2">RFC 6238 section 5.2</a>).
+ *
+ * <p>For each key (usually a user id) only the highest consumed counter is kept, and a counter is only accepted if it
+ * is higher than that. Updates are lock-free. Once the highest consumed counter for a key falls more than
+ * {@code retainSteps} behind the current step it can no longer be matched anyway and the entry is evicted. Once the
+ * time step has advanced, callers of {@link #tryConsume} each sweep up to {@value #EVICTION_BATCH} entries until the
+ * whole map has been visited, so no single verification pays for a sweep of every key. A caller that finds another
+ * one sweeping skips it rather than waiting.
+ *
+ * <p>Instances are thread-safe and are meant to be shared.
+ *
+ * @author bluewizardhat
+ */
+public final class ConsumedCounterRegistry {
+	static final int EVICTION_BATCH = 32;
+
+	private final ConcurrentMap<String, Long> consumed = new ConcurrentHashMap<>();
+	private final AtomicLong lastEvictionCounter = new AtomicLong();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final int retainSteps;
+
+	// guarded by evictionLock, the iterator is volatile so callers can see there is nothing to do without locking
+	private volatile Iterator<Map.Entry<String, Long>> evictionIterator;
+	private long evictBelow;
+
+	/**
+	 * @param retainSteps how many steps behind the current step a code can still be matched, this must cover both
+	 * the verification window and any clock skew allowed
+	 */
+	public ConsumedCounterRegistry(int retainSteps) {
+		if (retainSteps < 0) {
+			throw new IllegalArgumentException("retainSteps must not be negative");
+		}
+		this.retainSteps = retainSteps;
+	}
+
+	/**
+	 * Checks if a counter has already been consumed for a key, without consuming it.
+	 */
+	public boolean isConsumed(@NonNull String key, long counter) {
+		Long last = consumed.get(key);
+		return last != null && counter <= last;
+	}
+
+	/**
+	 * Atomically consumes a counter for a key. Returns false if this or a later counter was already consumed.
+	 */
+	public boolean tryConsume(@NonNull String key, long counter) {
+		return tryConsume(key, counter, System.currentTimeMillis() / TotpVerifier.TIME_STEP_MILLIS);
+	}
+
+	boolean tryConsume(String key, long counter, long currentCounter) {
+		evictSome(currentCounter);
+
+		Long boxedCounter = counter;
+		while (true) {
+			Long last = consumed.putIfAbsent(key, boxedCounter);
+			if (last == null) {
+				return true;
+			}
+			if (counter <= last) {
+				return false;
+			}
+			if (consumed.replace(key, last, boxedCounter)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Number of keys currently tracked.
+	 */
+	public int size() {
+		return consumed.size();
+	}
+
+	private void evictSome(long currentCounter) {
+		if (currentCounter <= lastEvictionCounter.get() && evictionIterator == null) {
+			return;
+		}
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			if (currentCounter > lastEvictionCounter.get()) {
+				lastEvictionCounter.set(currentCounter);
+				evictBelow = currentCounter - retainSteps;
+				// a sweep still running carries on with the newer bound, restarting it could leave the tail unvisited
+				if (evictionIterator == null) {
+					evictionIterator = consumed.entrySet().iterator();
+				}
+			}
+
+			Iterator<Map.Entry<String, Long>> iterator = evictionIterator;
+			if (iterator == null) {
+				return;
+			}
+			for (int i = 0; i < EVICTION_BATCH && iterator.hasNext(); i++) {
+				Map.Entry<String, Long> entry = iterator.next();
+				if (entry.getValue() < evictBelow) {
+					consumed.remove(entry.getKey(), entry.getValue());
+				}
+			}
+			if (!iterator.hasNext()) {
+				evictionIterator = null;
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+}
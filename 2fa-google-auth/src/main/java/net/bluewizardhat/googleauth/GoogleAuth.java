@@ -24,21 +24,11 @@ package net.bluewizardhat.googleauth;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.nio.ByteBuffer;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.text.DecimalFormat;
-import java.util.Arrays;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 import lombok.NonNull;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
-import com.google.common.io.BaseEncoding;
 
 /**
  * Class to generate and match OTP codes compatible with <a href="http://en.wikipedia.org/wiki/Google_Authenticator">Google Authenticator</a>.
@@ -47,8 +37,6 @@ import com.google.common.io.BaseEncoding;
  */
 public class GoogleAuth {
 
-	private static SecureRandom random = new SecureRandom();
-
 	/**
 	 * Utility class. Don't instantiate it.
 	 */
@@ -61,20 +49,17 @@ public class GoogleAuth {
 	 * @see #generate160BitSharedSecret
 	 */
 	public static String generate80BitSharedSecret() {
-		byte[] secret = new byte[10];
-		random.nextBytes(secret);
-		return BaseEncoding.base32().encode(secret);
+		return SharedSecretGenerator.generateSharedSecret(10);
 	}
 
 	/**
 	 * Generates an 160-bit shared secret and returns a string that can be used as input when setting up a new account
 	 * in the Google Authenticator app.
 	 * @see #prettifySecret
+	 * @see SharedSecretGenerator#generateSharedSecrets
 	 */
 	public static String generate160BitSharedSecret() {
-		byte[] secret = new byte[20];
-		random.nextBytes(secret);
-		return BaseEncoding.base32().encode(secret);
+		return SharedSecretGenerator.generateSharedSecret(20);
 	}
 
 	/**
@@ -82,32 +67,19 @@ public class GoogleAuth {
 	 * both the pretty and non-pretty format and so is this class.
 	 */
 	public static String prettifySecret(@NonNull String secret) {
-		int length = secret.length();
-		if (length % 4 != 0) {
-			throw new IllegalArgumentException("secret should be divisible by 4");
-		}
-
-		StringBuilder buf = new StringBuilder((5 * (length / 4)) - 1);
-		int index = 0;
-		while (index < length) {
-			if (index != 0) {
-				buf.append(' ');
-			}
-			buf.append(secret.substring(index, index + 4).toLowerCase());
-			index += 4;
-		}
-		return buf.toString();
+		char[] pretty = new char[Base32.prettifiedLength(secret.length())];
+		Base32.prettify(secret, pretty);
+		return new String(pretty);
 	}
 
 	/**
-	 * Matches a counter based code
+	 * Matches a counter based code. Use a {@link HotpVerifier} to also match counters ahead of the current one.
 	 * @param secret the shared secret
 	 * @param code code to match
 	 * @param counter current counter
 	 */
 	public static boolean matchCounterBasedCode(@NonNull String secret, @NonNull String code, long counter) {
-		String expectedCode = calculateCounterBasedCode(secret, counter);
-		return expectedCode.equals(code);
+		return new TotpVerifier(secret).matchCounterBasedCode(TotpVerifier.parseCode(code), counter);
 	}
 
 	/**
@@ -121,36 +93,13 @@ public class GoogleAuth {
 
 	/**
 	 * Matches a time based code, allowing for a few seconds of drift. It is recommended to only allow a few seconds drift.
+	 * Use a {@link TotpVerifier} directly to avoid decoding the secret more than once.
 	 * @param secret the shared secret
 	 * @param code code to match
 	 * @param secondsDrift how many seconds of drift is allowed, must be between 0 and 29 (inclusive).
 	 */
 	public static boolean matchTimeBasedCode(@NonNull String secret, @NonNull String code, int secondsDrift) {
-		if (secondsDrift < 0 || secondsDrift > 29) {
-			throw new IllegalArgumentException("secondsDrift must be between 0 and 29");
-		}
-
-		long currentTimeMillis = System.currentTimeMillis();
-		long counter = currentTimeMillis / 30000;
-
-		if (matchCounterBasedCode(secret, code, counter)) {
-			return true;
-		}
-		if (secondsDrift == 0) {
-			return false;
-		}
-
-		long millisDrift = secondsDrift * 1000;
-
-		// try to match against a clock that's ahead of this system's clock
-		counter = (currentTimeMillis + millisDrift) / 30000;
-		if (matchCounterBasedCode(secret, code, counter)) {
-			return true;
-		}
-
-		// try to match against a clock that's behind this system's clock
-		counter = (currentTimeMillis - millisDrift) / 30000;
-		return matchCounterBasedCode(secret, code, counter);
+		return new TotpVerifier(secret).matchTimeBasedCode(TotpVerifier.parseCode(code), secondsDrift);
 	}
 
 	/**
@@ -158,7 +107,7 @@ public class GoogleAuth {
 	 * @param secret the shared secret
 	 */
 	public static String calculateTimeBasedCode(@NonNull String secret) {
-		long counter = System.currentTimeMillis() / 30000;
+		long counter = System.currentTimeMillis() / TotpVerifier.TIME_STEP_MILLIS;
 		return calculateCounterBasedCode(secret, counter);
 	}
 
@@ -168,13 +117,7 @@ public class GoogleAuth {
 	 * @param counter current counter
 	 */
 	public static String calculateCounterBasedCode(@NonNull String secret, long counter) {
-		byte[] key = BaseEncoding.base32().decode(secret.replace(" ", "").toUpperCase());
-		byte[] hash = hmacSha1(key, counter);
-		int offset = hash[hash.length - 1] & 0x0f;
-		byte[] truncatedHash = Arrays.copyOfRange(hash, offset, offset + 4);
-		truncatedHash[0] = (byte) (truncatedHash[0] & 0x7f);
-		int code = ByteBuffer.allocate(4).put(truncatedHash).getInt(0) % 1000000;
-		return new DecimalFormat("000000").format(code);
+		return TotpVerifier.formatCode(PreparedSecret.of(secret).calculateCode(counter));
 	}
 
 	/**
@@ -227,15 +170,4 @@ public class GoogleAuth {
 	private static String encode(String s) throws UnsupportedEncodingException {
 		return URLEncoder.encode(s, Charsets.UTF_8.name()).replace("+", "%20");
 	}
-
-	private static byte[] hmacSha1(byte[] key, long counter) {
-		try {
-			Mac mac = Mac.getInstance("HmacSHA1");
-			mac.init(new SecretKeySpec(key, "HmacSHA1"));
-			mac.update(ByteBuffer.allocate(8).putLong(counter).array());
-			return mac.doFinal();
-		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
-			throw Throwables.propagate(e);
-		}
-	}
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import lombok.NonNull;
+
+/**
+ * Verifies counter based codes against a single {@link PreparedSecret}, looking ahead of the stored counter to
+ * cope with tokens that have been advanced without logging in
+ * (see <a href="https://tools.ietf.org/html/rfc4226#section-7.4">RFC 4226 section 7.4</a>).
+ *
+ * <p>After a successful match the server should store the returned counter + 1 as the next expected counter.
+ *
+ * <p>Like {@link PreparedSecret} instances are <b>not</b> thread-safe and should be confined to a single thread.
+ *
+ * @author bluewizardhat
+ */
+public final class HotpVerifier {
+	/**
+	 * Returned when the code did not match any counter in the look-ahead window.
+	 */
+	public static final long NO_MATCH = -1;
+
+	private final PreparedSecret secret;
+
+	public HotpVerifier(@NonNull PreparedSecret secret) {
+		this.secret = secret;
+	}
+
+	/**
+	 * Creates a verifier for a shared secret in either the pretty or non-pretty format.
+	 */
+	public HotpVerifier(@NonNull String secret) {
+		this(PreparedSecret.of(secret));
+	}
+
+	/**
+	 * Matches a code against the counters from {@code counter} to {@code counter + lookAhead} (inclusive), in order.
+	 * @param code code to match as returned by {@link TotpVerifier#parseCode}
+	 * @param counter the next expected counter
+	 * @param lookAhead how many counters beyond the expected counter to try
+	 * @return the counter that matched or {@link #NO_MATCH}
+	 */
+	public long matchLookAhead(int code, long counter, int lookAhead) {
+		checkArguments(counter, lookAhead);
+		if (code < 0) {
+			return NO_MATCH;
+		}
+
+		long last = counter + lookAhead;
+		for (long candidate = counter; candidate <= last; candidate++) {
+			if (secret.calculateCode(candidate) == code) {
+				return candidate;
+			}
+		}
+		return NO_MATCH;
+	}
+
+	/**
+	 * Resynchronizes with a token that has drifted further than a normal look-ahead window, by requiring two
+	 * consecutive codes. Each counter in the window is calculated once; the second code is only checked where the
+	 * first one matched.
+	 * @param firstCode the first code as returned by {@link TotpVerifier#parseCode}
+	 * @param secondCode the code generated directly after the first one
+	 * @param counter the next expected counter
+	 * @param lookAhead how many counters beyond the expected counter to search for the first code
+	 * @return the counter that matched the second code or {@link #NO_MATCH}
+	 */
+	public long resynchronize(int firstCode, int secondCode, long counter, int lookAhead) {
+		checkArguments(counter, lookAhead);
+		if (firstCode < 0 || secondCode < 0) {
+			return NO_MATCH;
+		}
+
+		long last = counter + lookAhead;
+		int code = secret.calculateCode(counter);
+		for (long candidate = counter; candidate <= last; candidate++) {
+			int nextCode = secret.calculateCode(candidate + 1);
+			if (code == firstCode && nextCode == secondCode) {
+				return candidate + 1;
+			}
+			code = nextCode;
+		}
+		return NO_MATCH;
+	}
+
+	private static void checkArguments(long counter, int lookAhead) {
+		if (counter < 0) {
+			throw new IllegalArgumentException("counter must not be negative");
+		}
+		if (lookAhead < 0) {
+			throw new IllegalArgumentException("lookAhead must not be negative");
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import lombok.NonNull;
+
+import com.google.common.base.Throwables;
+
+/**
+ * A shared secret that has been decoded and bound to an initialized {@link Mac} once, so that codes can be
+ * calculated repeatedly without decoding the secret, looking up the Mac or allocating buffers each time.
+ *
+ * <p>By default codes are calculated with the JCE {@link Mac}, use {@link #ofFusedKernel} to calculate them with
+ * the pure Java {@link HotpKernel} instead.
+ *
+ * <p>Instances are <b>not</b> thread-safe; keep an instance confined to a single thread (for example for the
+ * duration of one login request).
+ *
+ * @author bluewizardhat
+ */
+public final class PreparedSecret {
+	private static final String ALGORITHM = "HmacSHA1";
+
+	private final Mac mac;
+	private final byte[] counterBytes;
+	private final byte[] hash;
+	private final HotpKernel kernel;
+
+	private PreparedSecret(HotpKernel kernel) {
+		this.mac = null;
+		this.counterBytes = null;
+		this.hash = null;
+		this.kernel = kernel;
+	}
+
+	private PreparedSecret(byte[] key) {
+		kernel = null;
+		counterBytes = new byte[8];
+		try {
+			mac = Mac.getInstance(ALGORITHM);
+			mac.init(new SecretKeySpec(key, ALGORITHM));
+			hash = new byte[mac.getMacLength()];
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw Throwables.propagate(e);
+		}
+	}
+
+	/**
+	 * Prepares a shared secret in either the pretty or non-pretty format.
+	 * @param secret the shared secret
+	 */
+	public static PreparedSecret of(@NonNull String secret) {
+		return new PreparedSecret(Base32.decode(secret));
+	}
+
+	/**
+	 * Prepares a shared secret in either the pretty or non-pretty format, calculating codes with the
+	 * pure Java {@link HotpKernel} rather than the JCE {@link Mac}.
+	 * @param secret the shared secret
+	 */
+	public static PreparedSecret ofFusedKernel(@NonNull String secret) {
+		return new PreparedSecret(new HotpKernel(Base32.decode(secret)));
+	}
+
+	/**
+	 * Prepares an already decoded secret. The key is not retained, so the caller may wipe it afterwards.
+	 */
+	static PreparedSecret of(byte[] key, boolean fusedKernel) {
+		return fusedKernel ? new PreparedSecret(new HotpKernel(key)) : new PreparedSecret(key);
+	}
+
+	/**
+	 * Calculates the 6 digit code for a counter as an int (0 - 999999).
+	 * @param counter the counter
+	 */
+	public int calculateCode(long counter) {
+		if (kernel != null) {
+			return kernel.calculateCode(counter);
+		}
+
+		for (int i = 7; i >= 0; i--) {
+			counterBytes[i] = (byte) counter;
+			counter >>>= 8;
+		}
+
+		try {
+			mac.update(counterBytes);
+			mac.doFinal(hash, 0);
+		} catch (ShortBufferException e) {
+			throw Throwables.propagate(e);
+		}
+
+		int offset = hash[hash.length - 1] & 0x0f;
+		int binary = ((hash[offset] & 0x7f) << 24)
+				| ((hash[offset + 1] & 0xff) << 16)
+				| ((hash[offset + 2] & 0xff) << 8)
+				| (hash[offset + 3] & 0xff);
+		return binary % 1000000;
+	}
+}
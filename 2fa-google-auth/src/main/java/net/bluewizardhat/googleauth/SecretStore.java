@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.NonNull;
+
+/**
+ * A bounded store of decoded shared secrets, indexed by user id, that keeps the key material in off-heap memory
+ * rather than in long-lived arrays on the GC heap (and thereby out of heap dumps).
+ *
+ * <p>Keys are kept in fixed size slots in a single direct {@link ByteBuffer} allocated up front. Only the slot index
+ * is kept on the heap. When the store is full the least recently used key is wiped and its slot reused. Slots are
+ * always overwritten with zeros when a key is removed, evicted or replaced.
+ *
+ * <p>Temporary arrays used to hand keys in and out are wiped as soon as they are no longer needed.
+ *
+ * <p>All methods are synchronized, so instances are thread-safe.
+ *
+ * @author bluewizardhat
+ */
+public class SecretStore {
+	private final ByteBuffer slots;
+	private final int slotSize;
+	private final int capacity;
+	private final Deque<Integer> freeSlots;
+	private final LinkedHashMap<Long, Integer> index;
+
+	/**
+	 * @param capacity maximum number of keys to store
+	 * @param maxKeyBytes maximum length of a decoded key in bytes (20 for 160-bit secrets)
+	 */
+	public SecretStore(int capacity, int maxKeyBytes) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (maxKeyBytes <= 0 || maxKeyBytes > 255) {
+			throw new IllegalArgumentException("maxKeyBytes must be between 1 and 255");
+		}
+
+		// each slot holds a length byte followed by the key
+		this.slotSize = maxKeyBytes + 1;
+		if ((long) capacity * slotSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("capacity * (maxKeyBytes + 1) must not exceed " + Integer.MAX_VALUE + " bytes");
+		}
+		this.capacity = capacity;
+		this.slots = ByteBuffer.allocateDirect(capacity * slotSize);
+		this.freeSlots = new ArrayDeque<>(capacity);
+		for (int i = 0; i < capacity; i++) {
+			freeSlots.add(i);
+		}
+		this.index = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Decodes a shared secret (pretty or non-pretty format) and stores it for a user, replacing any existing key.
+	 */
+	public void put(long userId, @NonNull String secret) {
+		byte[] key = Base32.decode(secret);
+		try {
+			put(userId, key);
+		} finally {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * Stores a decoded key for a user, replacing any existing key. The caller remains responsible for wiping the array.
+	 */
+	public synchronized void put(long userId, @NonNull byte[] key) {
+		if (key.length == 0 || key.length > slotSize - 1) {
+			throw new IllegalArgumentException("key must be between 1 and " + (slotSize - 1) + " bytes");
+		}
+
+		Integer slot = index.get(userId);
+		if (slot == null) {
+			if (freeSlots.isEmpty()) {
+				evictEldest();
+			}
+			slot = freeSlots.poll();
+			index.put(userId, slot);
+		}
+
+		int position = slot * slotSize;
+		wipe(slot);
+		slots.put(position, (byte) key.length);
+		for (int i = 0; i < key.length; i++) {
+			slots.put(position + 1 + i, key[i]);
+		}
+	}
+
+	/**
+	 * Prepares the stored key of a user for calculating codes.
+	 * @param userId the user
+	 * @param fusedKernel if true the code is calculated with the {@link HotpKernel}, otherwise with the JCE
+	 * @return the prepared secret or null if no key is stored for the user
+	 */
+	public PreparedSecret prepare(long userId, boolean fusedKernel) {
+		byte[] key = copyKey(userId);
+		if (key == null) {
+			return null;
+		}
+		try {
+			return PreparedSecret.of(key, fusedKernel);
+		} finally {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * Removes and wipes the key of a user.
+	 * @return true if a key was stored for the user
+	 */
+	public synchronized boolean remove(long userId) {
+		Integer slot = index.remove(userId);
+		if (slot == null) {
+			return false;
+		}
+		release(slot);
+		return true;
+	}
+
+	/**
+	 * Removes and wipes all keys.
+	 */
+	public synchronized void clear() {
+		for (Integer slot : index.values()) {
+			release(slot);
+		}
+		index.clear();
+	}
+
+	public synchronized boolean contains(long userId) {
+		return index.containsKey(userId);
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private synchronized byte[] copyKey(long userId) {
+		Integer slot = index.get(userId);
+		if (slot == null) {
+			return null;
+		}
+		int position = slot * slotSize;
+		byte[] key = new byte[slots.get(position) & 0xff];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = slots.get(position + 1 + i);
+		}
+		return key;
+	}
+
+	private void evictEldest() {
+		Iterator<Map.Entry<Long, Integer>> eldest = index.entrySet().iterator();
+		Integer slot = eldest.next().getValue();
+		eldest.remove();
+		release(slot);
+	}
+
+	private void release(int slot) {
+		wipe(slot);
+		freeSlots.add(slot);
+	}
+
+	private void wipe(int slot) {
+		int position = slot * slotSize;
+		for (int i = 0; i < slotSize; i++) {
+			slots.put(position + i, (byte) 0);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import lombok.NonNull;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Generates shared secrets, in bulk if needed, without the bulk tasks contending for a single {@link SecureRandom}.
+ *
+ * <p>Single secrets come from the platform's default {@link SecureRandom}, shared by all callers. Bulk generation gives
+ * every leaf task of up to {@value #SEQUENTIAL_THRESHOLD} secrets an independent generator with state of its own, a
+ * DRBG where the platform has one (Java 9 and later) and SHA1PRNG otherwise. Each is seeded with
+ * {@value #SEED_BYTES} bytes from the shared instance before first use, so the shared instance is touched once per
+ * task instead of once per secret. Instances like NativePRNG are not used for this as they all share one source
+ * behind a global lock.
+ *
+ * @author bluewizardhat
+ */
+public class SharedSecretGenerator {
+	private static final String[] INDEPENDENT_ALGORITHMS = { "DRBG", "SHA1PRNG" };
+	private static final int SEED_BYTES = 32;
+	private static final int CHUNK_SIZE = 1024;
+	private static final int SEQUENTIAL_THRESHOLD = 64;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Utility class. Don't instantiate it.
+	 */
+	private SharedSecretGenerator() { }
+
+	/**
+	 * Generates a shared secret and returns it base32 encoded.
+	 * @param bytes length of the secret in bytes, must be a positive multiple of 5 (10 for 80-bit, 20 for 160-bit)
+	 */
+	public static String generateSharedSecret(int bytes) {
+		checkBytes(bytes);
+		return BaseEncoding.base32().encode(nextSecret(random, bytes));
+	}
+
+	/**
+	 * Generates a number of shared secrets in parallel on a shared {@link ForkJoinPool}.
+	 * @param bytes length of each secret in bytes, must be a positive multiple of 5
+	 * @param count number of secrets to generate
+	 */
+	public static String[] generateSharedSecrets(int bytes, int count) {
+		return generateSharedSecrets(bytes, count, PoolHolder.pool);
+	}
+
+	/**
+	 * Generates a number of shared secrets in parallel on the given {@link ForkJoinPool}.
+	 * @param bytes length of each secret in bytes, must be a positive multiple of 5
+	 * @param count number of secrets to generate
+	 * @param pool pool to generate the secrets on
+	 */
+	public static String[] generateSharedSecrets(int bytes, int count, @NonNull ForkJoinPool pool) {
+		checkBytes(bytes);
+		if (count < 0) {
+			throw new IllegalArgumentException("count must not be negative");
+		}
+		String[] secrets = new String[count];
+		pool.invoke(new GenerateTask(bytes, secrets, 0, count));
+		return secrets;
+	}
+
+	/**
+	 * Writes a number of base32 encoded shared secrets, one per line, to an OutputStream. The secrets are generated
+	 * in parallel on a shared {@link ForkJoinPool} in chunks of {@value #CHUNK_SIZE}, so memory use is bounded however
+	 * many secrets are written. The stream is flushed but not closed.
+	 * @param bytes length of each secret in bytes, must be a positive multiple of 5
+	 * @param count number of secrets to write
+	 * @param out stream to write to
+	 */
+	public static void writeSharedSecrets(int bytes, long count, @NonNull OutputStream out) throws IOException {
+		writeSharedSecrets(bytes, count, out, PoolHolder.pool);
+	}
+
+	/**
+	 * Like {@link #writeSharedSecrets(int, long, OutputStream)} but generates the secrets on the given {@link ForkJoinPool}.
+	 */
+	public static void writeSharedSecrets(int bytes, long count, @NonNull OutputStream out, @NonNull ForkJoinPool pool) throws IOException {
+		checkBytes(bytes);
+		if (count < 0) {
+			throw new IllegalArgumentException("count must not be negative");
+		}
+
+		String[] chunk = new String[(int) Math.min(CHUNK_SIZE, count)];
+		long remaining = count;
+		while (remaining > 0) {
+			int size = (int) Math.min(chunk.length, remaining);
+			pool.invoke(new GenerateTask(bytes, chunk, 0, size));
+			for (int i = 0; i < size; i++) {
+				out.write(chunk[i].getBytes(Charsets.US_ASCII));
+				out.write('\n');
+			}
+			remaining -= size;
+		}
+		out.flush();
+	}
+
+	private static void checkBytes(int bytes) {
+		if (bytes <= 0 || bytes % 5 != 0) {
+			throw new IllegalArgumentException("bytes must be a positive multiple of 5");
+		}
+	}
+
+	/**
+	 * Returns a new generator that shares no state with other instances, seeded from the shared instance.
+	 */
+	static SecureRandom newIndependentRandom() {
+		NoSuchAlgorithmException failure = null;
+		for (String algorithm : INDEPENDENT_ALGORITHMS) {
+			try {
+				SecureRandom independent = SecureRandom.getInstance(algorithm);
+				byte[] seed = new byte[SEED_BYTES];
+				random.nextBytes(seed);
+				// seeding before the first nextBytes also stops SHA1PRNG from seeding itself from the system seed generator
+				independent.setSeed(seed);
+				return independent;
+			} catch (NoSuchAlgorithmException e) {
+				// not available on this platform, try the next one
+				failure = e;
+			}
+		}
+		throw Throwables.propagate(failure);
+	}
+
+	private static byte[] nextSecret(SecureRandom random, int bytes) {
+		byte[] secret = new byte[bytes];
+		random.nextBytes(secret);
+		return secret;
+	}
+
+	private static class GenerateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int bytes;
+		private final String[] secrets;
+		private final int from;
+		private final int to;
+
+		GenerateTask(int bytes, String[] secrets, int from, int to) {
+			this.bytes = bytes;
+			this.secrets = secrets;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				SecureRandom random = newIndependentRandom();
+				BaseEncoding base32 = BaseEncoding.base32();
+				for (int i = from; i < to; i++) {
+					secrets[i] = base32.encode(nextSecret(random, bytes));
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new GenerateTask(bytes, secrets, from, middle), new GenerateTask(bytes, secrets, middle, to));
+		}
+	}
+
+	/**
+	 * Lazily creates the shared pool the first time bulk generation is used.
+	 */
+	private static class PoolHolder {
+		static final ForkJoinPool pool = new ForkJoinPool();
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth;
+
+import lombok.NonNull;
+
+/**
+ * Verifies codes against a single {@link PreparedSecret}. Codes are compared as ints so that matching
+ * allocates nothing once the verifier has been created.
+ *
+ * <p>If created with a {@link ConsumedCounterRegistry} the time based matchers reject codes for steps that were
+ * already used, without calculating them, and consume the step that matched.
+ *
+ * <p>Like {@link PreparedSecret} instances are <b>not</b> thread-safe and should be confined to a single thread.
+ *
+ * @author bluewizardhat
+ */
+public final class TotpVerifier {
+	static final long TIME_STEP_MILLIS = 30000;
+
+	/**
+	 * Returned by {@link #matchTimeStep} when the code did not match any step in the window.
+	 */
+	public static final int NO_MATCH = Integer.MIN_VALUE;
+
+	private final PreparedSecret secret;
+	private final ConsumedCounterRegistry registry;
+	private final String registryKey;
+
+	public TotpVerifier(@NonNull PreparedSecret secret) {
+		this.secret = secret;
+		this.registry = null;
+		this.registryKey = null;
+	}
+
+	/**
+	 * Creates a verifier with replay protection.
+	 * @param secret the prepared secret
+	 * @param registry registry of consumed steps, usually shared between all verifiers
+	 * @param registryKey key to consume steps under, usually the user id
+	 */
+	public TotpVerifier(@NonNull PreparedSecret secret, @NonNull ConsumedCounterRegistry registry, @NonNull String registryKey) {
+		this.secret = secret;
+		this.registry = registry;
+		this.registryKey = registryKey;
+	}
+
+	/**
+	 * Creates a verifier for a shared secret in either the pretty or non-pretty format.
+	 */
+	public TotpVerifier(@NonNull String secret) {
+		this(PreparedSecret.of(secret));
+	}
+
+	/**
+	 * Calculates the code for a counter as an int.
+	 * @param counter current counter
+	 */
+	public int calculateCounterBasedCode(long counter) {
+		return secret.calculateCode(counter);
+	}
+
+	/**
+	 * Matches a counter based code.
+	 * @param code code to match as returned by {@link #parseCode}
+	 * @param counter current counter
+	 */
+	public boolean matchCounterBasedCode(int code, long counter) {
+		return code >= 0 && secret.calculateCode(counter) == code;
+	}
+
+	/**
+	 * Matches a time based code, allowing for a few seconds of drift.
+	 * @param code code to match as returned by {@link #parseCode}
+	 * @param secondsDrift how many seconds of drift is allowed, must be between 0 and 29 (inclusive).
+	 */
+	public boolean matchTimeBasedCode(int code, int secondsDrift) {
+		return matchTimeBasedCode(code, secondsDrift, System.currentTimeMillis());
+	}
+
+	boolean matchTimeBasedCode(int code, int secondsDrift, long currentTimeMillis) {
+		if (secondsDrift < 0 || secondsDrift > 29) {
+			throw new IllegalArgumentException("secondsDrift must be between 0 and 29");
+		}
+		if (code < 0) {
+			return false;
+		}
+
+		long currentCounter = currentTimeMillis / TIME_STEP_MILLIS;
+		long counter = currentCounter;
+		if (matchStep(code, counter, currentCounter)) {
+			return true;
+		}
+		if (secondsDrift == 0) {
+			return false;
+		}
+
+		long millisDrift = secondsDrift * 1000;
+
+		// try to match against a clock that's ahead of this system's clock, unless it is still in the same step
+		long aheadCounter = (currentTimeMillis + millisDrift) / TIME_STEP_MILLIS;
+		if (aheadCounter != counter && matchStep(code, aheadCounter, currentCounter)) {
+			return true;
+		}
+
+		// try to match against a clock that's behind this system's clock, unless it is still in the same step
+		long behindCounter = (currentTimeMillis - millisDrift) / TIME_STEP_MILLIS;
+		return behindCounter != counter && matchStep(code, behindCounter, currentCounter);
+	}
+
+	/**
+	 * Matches a time based code against a window of whole time steps around the current one and returns the
+	 * offset of the step that matched, or {@link #NO_MATCH}. Each step is calculated at most once and steps are
+	 * tried in order of likelihood: the current step first, then alternating behind and ahead moving outwards.
+	 * @param code code to match as returned by {@link #parseCode}
+	 * @param windowSteps how many steps on either side of the current step to try, must be between 0 and 10 (inclusive).
+	 */
+	public int matchTimeStep(int code, int windowSteps) {
+		return matchTimeStep(code, 0, windowSteps, System.currentTimeMillis());
+	}
+
+	/**
+	 * Like {@link #matchTimeStep(int, int)} but centres the window on a known clock skew, for example one learned from
+	 * earlier matches. The returned offset is relative to the current step, not to the centre.
+	 * @param code code to match as returned by {@link #parseCode}
+	 * @param centerOffset offset of the step to centre the window on, must be between -10 and 10 (inclusive).
+	 * @param windowSteps how many steps on either side of the centre step to try, must be between 0 and 10 (inclusive).
+	 */
+	public int matchTimeStep(int code, int centerOffset, int windowSteps) {
+		return matchTimeStep(code, centerOffset, windowSteps, System.currentTimeMillis());
+	}
+
+	int matchTimeStep(int code, int centerOffset, int windowSteps, long currentTimeMillis) {
+		if (centerOffset < -10 || centerOffset > 10) {
+			throw new IllegalArgumentException("centerOffset must be between -10 and 10");
+		}
+		if (windowSteps < 0 || windowSteps > 10) {
+			throw new IllegalArgumentException("windowSteps must be between 0 and 10");
+		}
+		if (code < 0) {
+			return NO_MATCH;
+		}
+
+		long currentCounter = currentTimeMillis / TIME_STEP_MILLIS;
+		long counter = currentCounter + centerOffset;
+		if (matchStep(code, counter, currentCounter)) {
+			return centerOffset;
+		}
+		for (int offset = 1; offset <= windowSteps; offset++) {
+			// a clock that's behind is more likely than one that's ahead since the user needs time to type the code
+			if (matchStep(code, counter - offset, currentCounter)) {
+				return centerOffset - offset;
+			}
+			if (matchStep(code, counter + offset, currentCounter)) {
+				return centerOffset + offset;
+			}
+		}
+		return NO_MATCH;
+	}
+
+	/**
+	 * Like {@link #matchTimeStep(int, int, int)} but if nothing matches around the centre a wider window around the
+	 * current step is tried, so that a skew that has changed (for example after the phone synchronized its clock) is
+	 * found and can be learned again. Steps already tried around the centre are not calculated again.
+	 * @param code code to match as returned by {@link #parseCode}
+	 * @param centerOffset offset of the step to centre the window on, must be between -10 and 10 (inclusive).
+	 * @param windowSteps how many steps on either side of the centre step to try, must be between 0 and 10 (inclusive).
+	 * @param fallbackWindowSteps how many steps on either side of the current step to try if the centre window did
+	 * not match, must be between 0 and 10 (inclusive).
+	 */
+	public int matchTimeStepWithFallback(int code, int centerOffset, int windowSteps, int fallbackWindowSteps) {
+		return matchTimeStepWithFallback(code, centerOffset, windowSteps, fallbackWindowSteps, System.currentTimeMillis());
+	}
+
+	int matchTimeStepWithFallback(int code, int centerOffset, int windowSteps, int fallbackWindowSteps, long currentTimeMillis) {
+		if (fallbackWindowSteps < 0 || fallbackWindowSteps > 10) {
+			throw new IllegalArgumentException("fallbackWindowSteps must be between 0 and 10");
+		}
+		int matched = matchTimeStep(code, centerOffset, windowSteps, currentTimeMillis);
+		if (matched != NO_MATCH || code < 0) {
+			return matched;
+		}
+
+		long currentCounter = currentTimeMillis / TIME_STEP_MILLIS;
+		for (int step = 0; step <= fallbackWindowSteps; step++) {
+			// behind before ahead, as in matchTimeStep
+			if (matchFallbackStep(code, -step, centerOffset, windowSteps, currentCounter)) {
+				return -step;
+			}
+			if (step > 0 && matchFallbackStep(code, step, centerOffset, windowSteps, currentCounter)) {
+				return step;
+			}
+		}
+		return NO_MATCH;
+	}
+
+	private boolean matchFallbackStep(int code, int offset, int centerOffset, int windowSteps, long currentCounter) {
+		return Math.abs(offset - centerOffset) > windowSteps && matchStep(code, currentCounter + offset, currentCounter);
+	}
+
+	private boolean matchStep(int code, long counter, long currentCounter) {
+		if (registry == null) {
+			return matchCounterBasedCode(code, counter);
+		}
+		if (registry.isConsumed(registryKey, counter)) {
+			return false;
+		}
+		return matchCounterBasedCode(code, counter) && registry.tryConsume(registryKey, counter, currentCounter);
+	}
+
+	/**
+	 * Parses a 6 digit code as typed by the user. Returns -1 if the code is not exactly 6 digits,
+	 * which will never match.
+	 */
+	public static int parseCode(@NonNull String code) {
+		if (code.length() != 6) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < 6; i++) {
+			char c = code.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Formats a code as a zero-padded 6 digit string.
+	 */
+	public static String formatCode(int code) {
+		char[] digits = new char[6];
+		for (int i = 5; i >= 0; i--) {
+			digits[i] = (char) ('0' + code % 10);
+			code /= 10;
+		}
+		return new String(digits);
+	}
+}
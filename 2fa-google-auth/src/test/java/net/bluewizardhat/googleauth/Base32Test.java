@@ -0,0 +1,49 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.SecureRandom;
+
+import org.junit.Test;
+
+import com.google.common.io.BaseEncoding;
+
+public class Base32Test {
+
+	@Test
+	public void decode_matchesGuava() {
+		SecureRandom random = new SecureRandom();
+		for (int length : new int[] { 5, 10, 20, 35 }) {
+			byte[] key = new byte[length];
+			random.nextBytes(key);
+			String secret = BaseEncoding.base32().encode(key);
+
+			assertArrayEquals(key, Base32.decode(secret));
+			assertArrayEquals(key, Base32.decode(GoogleAuth.prettifySecret(secret)));
+			assertArrayEquals(key, Base32.decode(secret.toLowerCase()));
+		}
+	}
+
+	@Test
+	public void decode_intoCallerArray() {
+		byte[] out = new byte[32];
+
+		assertEquals(20, Base32.decode("gezd gnbv gy3t qojq gezd gnbv gy3t qojq", out));
+		assertEquals('1', out[0]);
+		assertEquals('0', out[19]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decode_rejectsInvalidCharacters() {
+		Base32.decode("GEZDGNBVGY3TQOJ1");
+	}
+
+	@Test
+	public void prettify_intoCallerArray() {
+		char[] out = new char[Base32.prettifiedLength(16)];
+
+		assertEquals(19, Base32.prettify("GEZDGNBVGY3TQOJQ", out));
+		assertEquals("gezd gnbv gy3t qojq", new String(out));
+	}
+}
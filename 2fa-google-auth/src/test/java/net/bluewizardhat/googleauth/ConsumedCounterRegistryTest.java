@@ -0,0 +1,69 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConsumedCounterRegistryTest {
+
+	@Test
+	public void tryConsume_rejectsSameAndEarlierCounters() {
+		ConsumedCounterRegistry registry = new ConsumedCounterRegistry(2);
+
+		assertTrue(registry.tryConsume("user", 100, 100));
+		assertFalse(registry.tryConsume("user", 100, 100));
+		assertFalse(registry.tryConsume("user", 99, 100));
+		assertTrue(registry.isConsumed("user", 99));
+		assertFalse(registry.isConsumed("other", 100));
+		assertTrue(registry.tryConsume("other", 100, 100));
+		assertTrue(registry.tryConsume("user", 101, 101));
+	}
+
+	@Test
+	public void tryConsume_evictsOnceStepsFallOutsideWindow() {
+		ConsumedCounterRegistry registry = new ConsumedCounterRegistry(2);
+
+		registry.tryConsume("a", 100, 100);
+		registry.tryConsume("b", 101, 101);
+		assertEquals(2, registry.size());
+
+		registry.tryConsume("c", 103, 103);
+		assertEquals(2, registry.size());
+		assertFalse(registry.isConsumed("a", 100));
+		assertTrue(registry.isConsumed("b", 101));
+	}
+
+	@Test
+	public void tryConsume_evictsIncrementally() {
+		ConsumedCounterRegistry registry = new ConsumedCounterRegistry(2);
+		int stale = 3 * ConsumedCounterRegistry.EVICTION_BATCH;
+		for (int i = 0; i < stale; i++) {
+			registry.tryConsume("stale" + i, 100, 100);
+		}
+
+		// each call sweeps one batch, the whole map is visited over a few calls
+		registry.tryConsume("fresh0", 103, 103);
+		assertEquals(stale - ConsumedCounterRegistry.EVICTION_BATCH + 1, registry.size());
+		for (int i = 1; i <= 3; i++) {
+			registry.tryConsume("fresh" + i, 103, 103);
+		}
+		assertEquals(4, registry.size());
+		assertFalse(registry.isConsumed("stale0", 100));
+	}
+
+	@Test
+	public void verifier_rejectsReplayedCode() {
+		ConsumedCounterRegistry registry = new ConsumedCounterRegistry(2);
+		PreparedSecret secret = PreparedSecret.of(GoogleAuth.generate160BitSharedSecret());
+		TotpVerifier verifier = new TotpVerifier(secret, registry, "user");
+		long now = 1234567890000L;
+		int code = verifier.calculateCounterBasedCode(now / 30000 - 1);
+
+		assertEquals(-1, verifier.matchTimeStep(code, 0, 1, now));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStep(code, 0, 1, now));
+		assertEquals(TotpVerifier.NO_MATCH, new TotpVerifier(secret, registry, "user").matchTimeStep(code, 0, 1, now));
+		assertEquals(-1, new TotpVerifier(secret).matchTimeStep(code, 0, 1, now));
+	}
+}
@@ -0,0 +1,52 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.SecureRandom;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+public class HotpKernelTest {
+	// RFC 4226 Appendix D
+	private int[] rfc4226Codes = { 755224, 287082, 359152, 969429, 338314, 254676, 287922, 162583, 399871, 520489 };
+
+	@Test
+	public void calculateCode_rfc4226() {
+		HotpKernel kernel = new HotpKernel("12345678901234567890".getBytes(Charsets.US_ASCII));
+
+		for (int counter = 0; counter < rfc4226Codes.length; counter++) {
+			assertEquals(rfc4226Codes[counter], kernel.calculateCode(counter));
+		}
+	}
+
+	@Test
+	public void calculateCode_rfc6238() {
+		PreparedSecret secret = PreparedSecret.ofFusedKernel("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ");
+
+		assertEquals(287082, secret.calculateCode(59L / 30));
+		assertEquals(81804, secret.calculateCode(1111111109L / 30));
+		assertEquals(5924, secret.calculateCode(1234567890L / 30));
+		assertEquals(279037, secret.calculateCode(2000000000L / 30));
+	}
+
+	@Test
+	public void calculateCode_matchesJce() {
+		SecureRandom random = new SecureRandom();
+		// include keys longer than a block, which HMAC hashes first
+		for (int length : new int[] { 10, 20, 64, 65, 100 }) {
+			byte[] key = new byte[length];
+			random.nextBytes(key);
+			String secret = BaseEncoding.base32().encode(key);
+			PreparedSecret jce = PreparedSecret.of(secret);
+			PreparedSecret fused = PreparedSecret.ofFusedKernel(secret);
+
+			for (int i = 0; i < 200; i++) {
+				long counter = random.nextLong();
+				assertEquals(jce.calculateCode(counter), fused.calculateCode(counter));
+			}
+		}
+	}
+}
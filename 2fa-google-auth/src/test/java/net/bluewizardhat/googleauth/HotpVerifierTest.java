@@ -0,0 +1,26 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HotpVerifierTest {
+	// "12345678901234567890" base32 encoded, the secret from RFC 4226 Appendix D
+	private HotpVerifier verifier = new HotpVerifier("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ");
+
+	@Test
+	public void matchLookAhead() {
+		assertEquals(0, verifier.matchLookAhead(755224, 0, 0));
+		assertEquals(7, verifier.matchLookAhead(162583, 2, 5));
+		assertEquals(HotpVerifier.NO_MATCH, verifier.matchLookAhead(162583, 2, 4));
+		assertEquals(HotpVerifier.NO_MATCH, verifier.matchLookAhead(162583, 8, 100));
+	}
+
+	@Test
+	public void resynchronize() {
+		assertEquals(8, verifier.resynchronize(162583, 399871, 0, 10));
+		assertEquals(8, verifier.resynchronize(162583, 399871, 7, 0));
+		assertEquals(HotpVerifier.NO_MATCH, verifier.resynchronize(162583, 520489, 0, 10));
+		assertEquals(HotpVerifier.NO_MATCH, verifier.resynchronize(162583, 399871, 0, 6));
+	}
+}
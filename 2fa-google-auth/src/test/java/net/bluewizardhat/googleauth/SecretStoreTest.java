@@ -0,0 +1,63 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SecretStoreTest {
+	private String secret = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+	@Test
+	public void prepare_calculatesSameCodes() {
+		SecretStore store = new SecretStore(10, 20);
+		store.put(1, GoogleAuth.prettifySecret(secret));
+
+		assertEquals(5924, store.prepare(1, false).calculateCode(1234567890L / 30));
+		assertEquals(5924, store.prepare(1, true).calculateCode(1234567890L / 30));
+		assertNull(store.prepare(2, false));
+	}
+
+	@Test
+	public void put_evictsLeastRecentlyUsed() {
+		SecretStore store = new SecretStore(2, 20);
+		store.put(1, secret);
+		store.put(2, secret);
+		store.prepare(1, false);
+		store.put(3, secret);
+
+		assertEquals(2, store.size());
+		assertTrue(store.contains(1));
+		assertFalse(store.contains(2));
+		assertTrue(store.contains(3));
+	}
+
+	@Test
+	public void removeAndClear() {
+		SecretStore store = new SecretStore(2, 20);
+		store.put(1, secret);
+		store.put(2, secret);
+
+		assertTrue(store.remove(1));
+		assertFalse(store.remove(1));
+		store.put(3, secret);
+		store.clear();
+		assertEquals(0, store.size());
+		store.put(4, secret);
+		store.put(5, secret);
+		assertEquals(2, store.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void put_rejectsTooLongKeys() {
+		new SecretStore(1, 10).put(1, secret);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_rejectsSizeOverflow() {
+		// 2^24 slots of 256 bytes is 2^32 bytes, which would wrap around to 0
+		new SecretStore(1 << 24, 255);
+	}
+}
@@ -0,0 +1,53 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class SharedSecretGeneratorTest {
+
+	@Test
+	public void generateSharedSecrets_uniqueAndComplete() {
+		String[] secrets = SharedSecretGenerator.generateSharedSecrets(20, 5000);
+
+		Set<String> unique = new HashSet<>(Arrays.asList(secrets));
+		assertEquals(5000, unique.size());
+		for (String secret : secrets) {
+			assertEquals(32, secret.length());
+		}
+	}
+
+	@Test
+	public void writeSharedSecrets_oneLinePerSecret() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SharedSecretGenerator.writeSharedSecrets(10, 2500, out);
+
+		String[] lines = new String(out.toByteArray(), Charsets.US_ASCII).split("\n");
+		assertEquals(2500, lines.length);
+		assertEquals(2500, new HashSet<>(Arrays.asList(lines)).size());
+		assertEquals(16, lines[2499].length());
+	}
+
+	@Test
+	public void newIndependentRandom_seededIndependently() {
+		byte[] first = new byte[32];
+		byte[] second = new byte[32];
+		SharedSecretGenerator.newIndependentRandom().nextBytes(first);
+		SharedSecretGenerator.newIndependentRandom().nextBytes(second);
+		assertFalse(Arrays.equals(first, second));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void generateSharedSecret_rejectsPaddedLengths() {
+		SharedSecretGenerator.generateSharedSecret(16);
+	}
+}
@@ -0,0 +1,105 @@
+package net.bluewizardhat.googleauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TotpVerifierTest {
+	// "12345678901234567890" base32 encoded, the SHA1 seed from RFC 6238 Appendix B
+	private String rfcSecret = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+	@Test
+	public void calculateCounterBasedCode_rfc6238() {
+		TotpVerifier verifier = new TotpVerifier(rfcSecret);
+
+		assertEquals(287082, verifier.calculateCounterBasedCode(59L / 30));
+		assertEquals(81804, verifier.calculateCounterBasedCode(1111111109L / 30));
+		assertEquals(5924, verifier.calculateCounterBasedCode(1234567890L / 30));
+		assertEquals(279037, verifier.calculateCounterBasedCode(2000000000L / 30));
+	}
+
+	@Test
+	public void calculateCounterBasedCode_matchesStaticApi() {
+		String secret = GoogleAuth.generate160BitSharedSecret();
+		TotpVerifier verifier = new TotpVerifier(GoogleAuth.prettifySecret(secret));
+
+		for (long counter = 0; counter < 100; counter++) {
+			assertEquals(GoogleAuth.calculateCounterBasedCode(secret, counter), TotpVerifier.formatCode(verifier.calculateCounterBasedCode(counter)));
+		}
+	}
+
+	@Test
+	public void matchTimeBasedCode_drift() {
+		TotpVerifier verifier = new TotpVerifier(rfcSecret);
+		long now = 1234567890000L;
+
+		assertTrue(verifier.matchTimeBasedCode(5924, 0, now));
+		// 1234567890 is 0 seconds into its step, a clock 5 seconds behind is in the previous step
+		int previous = verifier.calculateCounterBasedCode(now / 30000 - 1);
+		assertFalse(verifier.matchTimeBasedCode(previous, 0, now));
+		assertTrue(verifier.matchTimeBasedCode(previous, 5, now));
+	}
+
+	@Test
+	public void matchTimeStep_reportsOffset() {
+		TotpVerifier verifier = new TotpVerifier(rfcSecret);
+		long now = 1234567890000L;
+		long counter = now / 30000;
+
+		assertEquals(0, verifier.matchTimeStep(5924, 0, 0, now));
+		assertEquals(-2, verifier.matchTimeStep(verifier.calculateCounterBasedCode(counter - 2), 0, 2, now));
+		assertEquals(1, verifier.matchTimeStep(verifier.calculateCounterBasedCode(counter + 1), 0, 2, now));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStep(verifier.calculateCounterBasedCode(counter + 3), 0, 2, now));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStep(-1, 0, 2, now));
+	}
+
+	@Test
+	public void matchTimeStep_centredOnSkew() {
+		TotpVerifier verifier = new TotpVerifier(rfcSecret);
+		long now = 1234567890000L;
+		int code = verifier.calculateCounterBasedCode(now / 30000 - 4);
+
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStep(code, 0, 1, now));
+		assertEquals(-4, verifier.matchTimeStep(code, -4, 0, now));
+		assertEquals(-4, verifier.matchTimeStep(code, -3, 1, now));
+	}
+
+	@Test
+	public void matchTimeStepWithFallback_findsChangedSkew() {
+		TotpVerifier verifier = new TotpVerifier(rfcSecret);
+		long now = 1234567890000L;
+		long counter = now / 30000;
+
+		// learned skew +3, but the clock has since been corrected
+		int code = verifier.calculateCounterBasedCode(counter);
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStep(code, 3, 1, now));
+		assertEquals(0, verifier.matchTimeStepWithFallback(code, 3, 1, 10, now));
+		assertEquals(-7, verifier.matchTimeStepWithFallback(verifier.calculateCounterBasedCode(counter - 7), 3, 1, 10, now));
+		// the centre window still matches first
+		assertEquals(4, verifier.matchTimeStepWithFallback(verifier.calculateCounterBasedCode(counter + 4), 3, 1, 10, now));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStepWithFallback(verifier.calculateCounterBasedCode(counter - 7), 3, 1, 5, now));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStepWithFallback(-1, 3, 1, 10, now));
+	}
+
+	@Test
+	public void matchTimeStepWithFallback_consumedStepNotMatchedAgain() {
+		ConsumedCounterRegistry registry = new ConsumedCounterRegistry(11);
+		TotpVerifier verifier = new TotpVerifier(PreparedSecret.of(rfcSecret), registry, "user");
+		long now = 1234567890000L;
+		int code = verifier.calculateCounterBasedCode(now / 30000);
+
+		assertEquals(0, verifier.matchTimeStepWithFallback(code, 3, 1, 10, now));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.matchTimeStepWithFallback(code, 3, 1, 10, now));
+	}
+
+	@Test
+	public void parseAndFormatCode() {
+		assertEquals(5924, TotpVerifier.parseCode("005924"));
+		assertEquals(-1, TotpVerifier.parseCode("5924"));
+		assertEquals(-1, TotpVerifier.parseCode("00592a"));
+		assertEquals("005924", TotpVerifier.formatCode(5924));
+		assertFalse(new TotpVerifier(rfcSecret).matchCounterBasedCode(-1, 0));
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth.qr;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import lombok.NonNull;
+import lombok.Value;
+import net.bluewizardhat.googleauth.GoogleAuth;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+
+/**
+ * Generates enrollment kits in bulk: for each (issuer, account) pair a shared secret is generated and a QR code
+ * rendered, and everything is streamed into a ZIP file with one image per account and a manifest.csv listing
+ * the accounts, their secrets and otpauth uris.
+ *
+ * <p>Kits are generated in parallel on a {@link ForkJoinPool} but written in input order. At most
+ * {@code maxInFlight} kits are held in memory at a time and the manifest is spooled to a temporary file until the
+ * images have been written, so memory use does not depend on the number of accounts. As the manifest holds the
+ * secrets the temporary file is only readable by the owner where the file system supports it, and it can be put in
+ * a directory of its own.
+ *
+ * <p>Can be run from the command line, see {@link #main}.
+ *
+ * @author bluewizardhat
+ */
+public class EnrollmentKitWriter {
+	private static final String MANIFEST_HEADER = "index,issuer,account,secret,uri,image\n";
+
+	/**
+	 * An account to generate a kit for
+	 */
+	@Value
+	public static class Account {
+		private String issuer;
+		private String accountName;
+	}
+
+	@Value
+	private static class Kit {
+		private Account account;
+		private String secret;
+		private String uri;
+		private byte[] image;
+	}
+
+	private final ForkJoinPool pool;
+	private final int maxInFlight;
+	private final QrOptions options;
+	private final QrFormat format;
+	private final Path spoolDirectory;
+
+	/**
+	 * Spools the manifest in the default temporary directory.
+	 * @param pool pool to generate kits on
+	 * @param maxInFlight maximum number of kits generated ahead of the one being written
+	 * @param options options for the QR codes
+	 * @param format image format of the QR codes
+	 */
+	public EnrollmentKitWriter(@NonNull ForkJoinPool pool, int maxInFlight, @NonNull QrOptions options, @NonNull QrFormat format) {
+		this(pool, maxInFlight, options, format, null);
+	}
+
+	/**
+	 * @param pool pool to generate kits on
+	 * @param maxInFlight maximum number of kits generated ahead of the one being written
+	 * @param options options for the QR codes
+	 * @param format image format of the QR codes
+	 * @param spoolDirectory directory to spool the manifest in, or null for the default temporary directory
+	 */
+	public EnrollmentKitWriter(@NonNull ForkJoinPool pool, int maxInFlight, @NonNull QrOptions options, @NonNull QrFormat format, Path spoolDirectory) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		this.pool = pool;
+		this.maxInFlight = maxInFlight;
+		this.options = options;
+		this.format = format;
+		this.spoolDirectory = spoolDirectory;
+	}
+
+	/**
+	 * Generates kits for all accounts and writes them as a ZIP to the OutputStream. The stream is finished but not closed.
+	 * @return the number of kits written
+	 */
+	public int write(@NonNull Iterator<Account> accounts, @NonNull OutputStream out) throws IOException {
+		Path manifestFile = createSpoolFile();
+		Deque<Future<Kit>> inFlight = new ArrayDeque<>(maxInFlight);
+		try {
+			ZipOutputStream zip = new ZipOutputStream(out);
+			int count = 0;
+			try (Writer manifest = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(manifestFile), Charsets.UTF_8))) {
+				manifest.write(MANIFEST_HEADER);
+
+				while (accounts.hasNext()) {
+					if (inFlight.size() == maxInFlight) {
+						writeKit(zip, manifest, ++count, await(inFlight.poll()));
+					}
+					// secrets are generated here on the writing thread, not by every pool worker on the shared SecureRandom
+					inFlight.add(pool.submit(generate(accounts.next(), GoogleAuth.generate160BitSharedSecret())));
+				}
+				while (!inFlight.isEmpty()) {
+					writeKit(zip, manifest, ++count, await(inFlight.poll()));
+				}
+			}
+
+			zip.putNextEntry(new ZipEntry("manifest.csv"));
+			Files.copy(manifestFile, zip);
+			zip.closeEntry();
+			zip.finish();
+			out.flush();
+			return count;
+		} finally {
+			// only left if writing failed, don't keep generating kits nobody will write
+			for (Future<Kit> future : inFlight) {
+				future.cancel(true);
+			}
+			try {
+				Files.deleteIfExists(manifestFile);
+			} catch (IOException e) {
+				manifestFile.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	private Path createSpoolFile() throws IOException {
+		FileAttribute<?>[] ownerOnly = FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+				? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)) }
+				: new FileAttribute<?>[0];
+		return spoolDirectory != null
+				? Files.createTempFile(spoolDirectory, "manifest", ".csv", ownerOnly)
+				: Files.createTempFile("manifest", ".csv", ownerOnly);
+	}
+
+	private Callable<Kit> generate(final Account account, final String secret) {
+		return new Callable<Kit>() {
+			@Override
+			public Kit call() throws IOException {
+				String uri = GoogleAuth.makeTimeBasedQrUri(account.getIssuer(), account.getAccountName(), secret);
+				byte[] image = QrRenderPipeline.render(account.getIssuer(), account.getAccountName(), secret, options, format);
+				return new Kit(account, secret, uri, image);
+			}
+		};
+	}
+
+	private static Kit await(Future<Kit> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating enrollment kits", e);
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private void writeKit(ZipOutputStream zip, Writer manifest, int index, Kit kit) throws IOException {
+		String imageName = String.format("%06d-%s.%s", index, kit.getAccount().getAccountName().replaceAll("[^A-Za-z0-9._@-]", "_"),
+				format.name().toLowerCase());
+
+		zip.putNextEntry(new ZipEntry(imageName));
+		zip.write(kit.getImage());
+		zip.closeEntry();
+
+		manifest.append(String.valueOf(index)).append(',')
+			.append(csv(kit.getAccount().getIssuer())).append(',')
+			.append(csv(kit.getAccount().getAccountName())).append(',')
+			.append(kit.getSecret()).append(',')
+			.append(csv(kit.getUri())).append(',')
+			.append(imageName).append('\n');
+	}
+
+	private static String csv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Reads accounts as lines of "issuer,account" from a Reader. Empty lines are skipped.
+	 */
+	public static Iterator<Account> readAccounts(@NonNull final BufferedReader reader) {
+		return new Iterator<Account>() {
+			private Account next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					next = readNext();
+				}
+				return next != null;
+			}
+
+			@Override
+			public Account next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Account account = next;
+				next = null;
+				return account;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			private Account readNext() {
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.trim().isEmpty()) {
+							continue;
+						}
+						int comma = line.indexOf(',');
+						if (comma < 0) {
+							throw new IllegalArgumentException("Expected issuer,account but got: " + line);
+						}
+						return new Account(line.substring(0, comma).trim(), line.substring(comma + 1).trim());
+					}
+					return null;
+				} catch (IOException e) {
+					throw Throwables.propagate(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Command line entry point:
+	 * <pre>EnrollmentKitWriter &lt;accounts.csv or -&gt; &lt;kits.zip&gt; [png|svg]</pre>
+	 * reads "issuer,account" lines from the file (or stdin) and writes the kits to the ZIP file.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: EnrollmentKitWriter <accounts.csv or -> <kits.zip> [png|svg]");
+			System.exit(1);
+		}
+
+		QrFormat format = args.length == 3 ? QrFormat.valueOf(args[2].toUpperCase()) : QrFormat.PNG;
+		InputStream in = "-".equals(args[0]) ? System.in : new FileInputStream(args[0]);
+		ForkJoinPool pool = new ForkJoinPool();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+				OutputStream out = new FileOutputStream(args[1])) {
+			EnrollmentKitWriter writer = new EnrollmentKitWriter(pool, 4 * pool.getParallelism(), QrOptions.builder().size(0).build(), format);
+			int count = writer.write(readAccounts(reader), out);
+			System.err.println("Wrote " + count + " enrollment kits to " + args[1]);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
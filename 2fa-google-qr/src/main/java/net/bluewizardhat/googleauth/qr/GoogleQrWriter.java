@@ -25,13 +25,17 @@ package net.bluewizardhat.googleauth.qr;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
+import lombok.NonNull;
 import net.bluewizardhat.googleauth.GoogleAuth;
 
 import com.google.common.base.Throwables;
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
@@ -40,6 +44,8 @@ import com.google.zxing.qrcode.QRCodeWriter;
 /**
  * Class to generate and write out Google Authenticator QR codes using the zxing qr code generator
  *
+ * <p>See {@link PngQrWriter} for a faster way to write PNG images that does not use AWT.
+ *
  * @author bluewizardhat
  */
 public class GoogleQrWriter {
@@ -47,15 +53,42 @@ public class GoogleQrWriter {
 	 * Generates the image containing a QR Code.
 	 */
 	public static BufferedImage generateQr(String issuer, String accountName, String secret) {
+		return MatrixToImageWriter.toBufferedImage(generateQrMatrix(issuer, accountName, secret, QrOptions.DEFAULT));
+	}
+
+	/**
+	 * Generates a QR Code as a {@link BitMatrix}, with one bit per pixel.
+	 */
+	public static BitMatrix generateQrMatrix(String issuer, String accountName, String secret, @NonNull QrOptions options) {
+		Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+		hints.put(EncodeHintType.ERROR_CORRECTION, options.getErrorCorrection());
+		hints.put(EncodeHintType.MARGIN, options.getQuietZone());
+
 		try {
 			String qrUri = GoogleAuth.makeTimeBasedQrUri(issuer, accountName, secret);
-			BitMatrix bitMatrix = new QRCodeWriter().encode(qrUri, BarcodeFormat.QR_CODE, 250, 250);
-			return MatrixToImageWriter.toBufferedImage(bitMatrix);
+			return new QRCodeWriter().encode(qrUri, BarcodeFormat.QR_CODE, options.getSize(), options.getSize(), hints);
 		} catch (WriterException e) {
 			throw Throwables.propagate(e);
 		}
 	}
 
+	/**
+	 * Generates a QR Code and writes it to the OutputStream in the given format, without using AWT.
+	 */
+	public static void writeQr(String issuer, String accountName, String secret, @NonNull QrOptions options, @NonNull QrFormat format, OutputStream out) throws IOException {
+		BitMatrix matrix = generateQrMatrix(issuer, accountName, secret, options);
+		switch (format) {
+		case PNG:
+			PngQrWriter.writePng(matrix, out);
+			break;
+		case SVG:
+			SvgQrWriter.write(matrix, out);
+			break;
+		default:
+			throw new IllegalArgumentException(format + " not recognized");
+		}
+	}
+
 	/**
 	 * Writes out the image to the OutputStream. (Basically wraps {@link ImageIO#write(BufferedImage,String,OutputStream)}
 	 */
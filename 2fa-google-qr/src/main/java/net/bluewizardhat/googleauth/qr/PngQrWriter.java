@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth.qr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import lombok.NonNull;
+
+import com.google.common.base.Charsets;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Writes QR codes as 1-bit grayscale PNG images straight from the zxing {@link BitMatrix}, without going through
+ * a {@link java.awt.image.BufferedImage} and ImageIO. Nothing in this class touches AWT, so it can be used on
+ * headless nodes without loading the imaging stack.
+ *
+ * <p>Rows are packed and compressed one at a time and the compressed data is written out in IDAT chunks as it is
+ * produced, so memory use does not depend on the image size.
+ *
+ * <p>Instances reuse their {@link Deflater} and buffers and are <b>not</b> thread-safe. Close an instance when done
+ * with it to free the native memory of its Deflater; the static methods use a new instance per call and close it.
+ *
+ * @author bluewizardhat
+ */
+public class PngQrWriter implements Closeable {
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+	private static final byte[] IHDR = "IHDR".getBytes(Charsets.US_ASCII);
+	private static final byte[] IDAT = "IDAT".getBytes(Charsets.US_ASCII);
+	private static final byte[] IEND = "IEND".getBytes(Charsets.US_ASCII);
+
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	private final CRC32 crc = new CRC32();
+	private final byte[] chunkBuffer = new byte[8192];
+	private final byte[] header = new byte[13];
+	private final byte[] intBuffer = new byte[4];
+	private byte[] row = new byte[0];
+
+	/**
+	 * Generates the QR code for a time based secret as a 250x250 {@link BitMatrix}, the same image that
+	 * {@link GoogleQrWriter#generateQr} renders.
+	 */
+	public static BitMatrix generateQrMatrix(String issuer, String accountName, String secret) {
+		return GoogleQrWriter.generateQrMatrix(issuer, accountName, secret, QrOptions.DEFAULT);
+	}
+
+	/**
+	 * Generates the QR code for a time based secret and writes it as a PNG to the OutputStream.
+	 */
+	public static void writeQr(String issuer, String accountName, String secret, @NonNull OutputStream out) throws IOException {
+		writePng(generateQrMatrix(issuer, accountName, secret), out);
+	}
+
+	/**
+	 * Writes a {@link BitMatrix} as a PNG using a new writer, see {@link #write}.
+	 */
+	public static void writePng(@NonNull BitMatrix matrix, @NonNull OutputStream out) throws IOException {
+		try (PngQrWriter writer = new PngQrWriter()) {
+			writer.write(matrix, out);
+		}
+	}
+
+	/**
+	 * Writes a {@link BitMatrix} as a 1-bit grayscale PNG with one pixel per bit (set bits are black).
+	 * The stream is flushed but not closed.
+	 */
+	public void write(@NonNull BitMatrix matrix, @NonNull OutputStream out) throws IOException {
+		int width = matrix.getWidth();
+		int height = matrix.getHeight();
+
+		out.write(SIGNATURE);
+
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 1; // bit depth
+		header[9] = 0; // color type: grayscale
+		header[10] = 0; // compression method: deflate
+		header[11] = 0; // filter method: adaptive
+		header[12] = 0; // interlace method: none
+		writeChunk(out, IHDR, header, header.length);
+
+		// each row is a filter type byte (0: none) followed by the packed pixels
+		int rowLength = 1 + (width + 7) / 8;
+		if (row.length < rowLength) {
+			row = new byte[rowLength];
+		}
+
+		deflater.reset();
+		int buffered = 0;
+		for (int y = 0; y < height; y++) {
+			packRow(matrix, y, width);
+			deflater.setInput(row, 0, rowLength);
+			while (!deflater.needsInput()) {
+				buffered = deflate(out, buffered);
+			}
+		}
+		deflater.finish();
+		while (!deflater.finished()) {
+			buffered = deflate(out, buffered);
+		}
+		if (buffered > 0) {
+			writeChunk(out, IDAT, chunkBuffer, buffered);
+		}
+
+		writeChunk(out, IEND, chunkBuffer, 0);
+		out.flush();
+	}
+
+	/**
+	 * Frees the native memory of the {@link Deflater}. The writer can't be used after it is closed.
+	 */
+	@Override
+	public void close() {
+		deflater.end();
+	}
+
+	/**
+	 * Deflates into the chunk buffer, writing it out as an IDAT chunk whenever it is full.
+	 */
+	private int deflate(OutputStream out, int buffered) throws IOException {
+		buffered += deflater.deflate(chunkBuffer, buffered, chunkBuffer.length - buffered);
+		if (buffered == chunkBuffer.length) {
+			writeChunk(out, IDAT, chunkBuffer, buffered);
+			return 0;
+		}
+		return buffered;
+	}
+
+	private void packRow(BitMatrix matrix, int y, int width) {
+		int index = 1;
+		int bits = 0;
+		int count = 0;
+		row[0] = 0;
+		for (int x = 0; x < width; x++) {
+			// in grayscale 0 is black, so set (dark) modules become 0 bits
+			bits = (bits << 1) | (matrix.get(x, y) ? 0 : 1);
+			if (++count == 8) {
+				row[index++] = (byte) bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+		if (count > 0) {
+			row[index] = (byte) (bits << (8 - count));
+		}
+	}
+
+	private void writeChunk(OutputStream out, byte[] type, byte[] data, int length) throws IOException {
+		putInt(intBuffer, 0, length);
+		out.write(intBuffer);
+		out.write(type);
+		out.write(data, 0, length);
+
+		crc.reset();
+		crc.update(type);
+		crc.update(data, 0, length);
+		putInt(intBuffer, 0, (int) crc.getValue());
+		out.write(intBuffer);
+	}
+
+	private static void putInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+}
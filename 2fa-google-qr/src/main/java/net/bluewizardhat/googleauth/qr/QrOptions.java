@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth.qr;
+
+import lombok.Builder;
+import lombok.Value;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Options for generating QR codes.
+ *
+ * @author bluewizardhat
+ */
+@Value
+@Builder
+public class QrOptions {
+	/**
+	 * The options {@link GoogleQrWriter#generateQr} has always used: a 250x250 image with zxing's default error
+	 * correction level and quiet zone.
+	 */
+	public static final QrOptions DEFAULT = builder().build();
+
+	/**
+	 * Error correction level, defaults to L (about 7% of the code can be restored).
+	 */
+	private ErrorCorrectionLevel errorCorrection;
+
+	/**
+	 * Width of the quiet zone around the code in modules, defaults to 4.
+	 */
+	private int quietZone;
+
+	/**
+	 * Width and height of the image in pixels, defaults to 250. If 0 the image is generated at its native size
+	 * with one pixel per module, to be scaled by the client (for example with CSS).
+	 */
+	private int size;
+
+	public static class QrOptionsBuilder {
+		private ErrorCorrectionLevel errorCorrection = ErrorCorrectionLevel.L;
+		private int quietZone = 4;
+		private int size = 250;
+	}
+}
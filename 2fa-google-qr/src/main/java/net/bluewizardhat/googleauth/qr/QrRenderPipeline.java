@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth.qr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import lombok.NonNull;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Renders QR code images in the background on a bounded pool of threads, for example to have an image ready by the
+ * time a browser asks for it, or to render many images in a batch job.
+ *
+ * <p>Both the number of threads and the number of waiting jobs are bounded. When the queue is full
+ * {@link #submit} throws {@link RejectedExecutionException} and the caller can render in its own thread instead.
+ *
+ * @author bluewizardhat
+ */
+public class QrRenderPipeline implements Closeable {
+	private final ListeningExecutorService executor;
+
+	/**
+	 * @param threads number of threads to render on
+	 * @param queueCapacity how many jobs may wait for a thread
+	 */
+	public QrRenderPipeline(int threads, int queueCapacity) {
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactoryBuilder().setNameFormat("qr-render-%d").setDaemon(true).build());
+		executor = MoreExecutors.listeningDecorator(threadPool);
+	}
+
+	/**
+	 * Queues rendering of a QR code image.
+	 * @return the encoded image once rendered
+	 * @throws RejectedExecutionException if the queue is full or the pipeline is closed
+	 */
+	public ListenableFuture<byte[]> submit(final String issuer, final String accountName, final String secret,
+			@NonNull final QrOptions options, @NonNull final QrFormat format) {
+		return executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return render(issuer, accountName, secret, options, format);
+			}
+		});
+	}
+
+	/**
+	 * Renders a QR code image in the calling thread.
+	 */
+	public static byte[] render(String issuer, String accountName, String secret, @NonNull QrOptions options, @NonNull QrFormat format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GoogleQrWriter.writeQr(issuer, accountName, secret, options, format, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Stops accepting jobs. Jobs already queued are still rendered.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.googleauth.qr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import lombok.NonNull;
+
+import com.google.common.base.Charsets;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Writes QR codes as SVG images. Each horizontal run of set bits becomes one rectangle in a single path, so the
+ * image stays small and scales to any size without blurring.
+ *
+ * @author bluewizardhat
+ */
+public class SvgQrWriter {
+	/**
+	 * Utility class. Don't instantiate it.
+	 */
+	private SvgQrWriter() { }
+
+	/**
+	 * Writes a {@link BitMatrix} as an SVG image with one unit per bit (set bits are black).
+	 * The stream is flushed but not closed.
+	 */
+	public static void write(@NonNull BitMatrix matrix, @NonNull OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+		writer.write(toSvg(matrix));
+		writer.flush();
+	}
+
+	/**
+	 * Returns a {@link BitMatrix} as an SVG document with one unit per bit (set bits are black).
+	 */
+	public static String toSvg(@NonNull BitMatrix matrix) {
+		int width = matrix.getWidth();
+		int height = matrix.getHeight();
+
+		StringBuilder svg = new StringBuilder(64 * height)
+				.append("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 ").append(width).append(' ').append(height)
+				.append("\" shape-rendering=\"crispEdges\">")
+				.append("<rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>")
+				.append("<path fill=\"#000\" d=\"");
+
+		for (int y = 0; y < height; y++) {
+			int x = 0;
+			while (x < width) {
+				if (!matrix.get(x, y)) {
+					x++;
+					continue;
+				}
+				int start = x;
+				while (x < width && matrix.get(x, y)) {
+					x++;
+				}
+				int run = x - start;
+				svg.append('M').append(start).append(' ').append(y)
+					.append('h').append(run).append("v1h-").append(run).append('z');
+			}
+		}
+
+		return svg.append("\"/></svg>").toString();
+	}
+}
@@ -0,0 +1,130 @@
+package net.bluewizardhat.googleauth.qr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import net.bluewizardhat.googleauth.qr.EnrollmentKitWriter.Account;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+public class EnrollmentKitWriterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void write_manifestSpooledOwnerOnly() throws IOException {
+		final File spool = temporaryFolder.newFolder("spool");
+		final List<Set<PosixFilePermission>> permissions = new ArrayList<>();
+		final Iterator<Account> accounts = Arrays.asList(new Account("Test", "user1"), new Account("Test", "user2")).iterator();
+		Iterator<Account> checking = new Iterator<Account>() {
+			@Override
+			public boolean hasNext() {
+				return accounts.hasNext();
+			}
+
+			@Override
+			public Account next() {
+				try {
+					for (File file : spool.listFiles()) {
+						permissions.add(Files.getPosixFilePermissions(file.toPath()));
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				return accounts.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		EnrollmentKitWriter writer = new EnrollmentKitWriter(pool, 2, QrOptions.builder().size(0).build(), QrFormat.SVG, spool.toPath());
+		assertEquals(2, writer.write(checking, new ByteArrayOutputStream()));
+		pool.shutdown();
+
+		assertEquals(2, permissions.size());
+		for (Set<PosixFilePermission> permission : permissions) {
+			assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE), permission);
+		}
+		assertEquals(0, spool.listFiles().length);
+	}
+
+	@Test
+	public void write_failureRemovesSpoolFile() throws IOException {
+		File spool = temporaryFolder.newFolder("spool");
+		Iterator<Account> accounts = EnrollmentKitWriter.readAccounts(new BufferedReader(new StringReader("Test,user1\nbroken\n")));
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		EnrollmentKitWriter writer = new EnrollmentKitWriter(pool, 2, QrOptions.builder().size(0).build(), QrFormat.SVG, spool.toPath());
+		try {
+			writer.write(accounts, new ByteArrayOutputStream());
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(0, spool.listFiles().length);
+	}
+
+	@Test
+	public void write_imagesInOrderAndManifest() throws IOException {
+		StringBuilder input = new StringBuilder();
+		for (int i = 1; i <= 50; i++) {
+			input.append("Test,user").append(i).append("@test.com\n");
+		}
+		input.append("\n").append("Test, \"quoted,user\"\n");
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		EnrollmentKitWriter writer = new EnrollmentKitWriter(pool, 8, QrOptions.builder().size(0).build(), QrFormat.SVG);
+		int count = writer.write(EnrollmentKitWriter.readAccounts(new BufferedReader(new StringReader(input.toString()))), out);
+		pool.shutdown();
+
+		assertEquals(51, count);
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			for (int i = 1; i <= 50; i++) {
+				ZipEntry entry = zip.getNextEntry();
+				assertEquals(String.format("%06d-user%d@test.com.svg", i, i), entry.getName());
+			}
+			assertEquals("000051-_quoted_user_.svg", zip.getNextEntry().getName());
+
+			assertEquals("manifest.csv", zip.getNextEntry().getName());
+			String[] manifest = new String(ByteStreams.toByteArray(zip), Charsets.UTF_8).split("\n");
+			assertEquals(52, manifest.length);
+			assertTrue(manifest[1].startsWith("1,Test,user1@test.com,"));
+			assertTrue(manifest[1].endsWith(",000001-user1@test.com.svg"));
+			assertTrue(manifest[51].startsWith("51,Test,\"\"\"quoted,user\"\"\","));
+			assertNull(zip.getNextEntry());
+		}
+	}
+}
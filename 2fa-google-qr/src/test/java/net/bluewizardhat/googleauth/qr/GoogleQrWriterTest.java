@@ -1,6 +1,10 @@
 package net.bluewizardhat.googleauth.qr;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -10,6 +14,10 @@ import java.util.UUID;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
 public class GoogleQrWriterTest {
 	private String secret = "72NSHUOFUBTZU25KWAHUWUBUFABU34I2";
 
@@ -26,4 +34,36 @@ public class GoogleQrWriterTest {
 		}
 	}
 
+	@Test
+	public void generateQrMatrix_nativeSize() {
+		QrOptions options = QrOptions.builder().size(0).quietZone(2).build();
+		BitMatrix matrix = GoogleQrWriter.generateQrMatrix("Test", "test@test.com", secret, options);
+
+		// version 5 (37x37 modules) fits the uri at error correction level L
+		assertEquals(37 + 2 * 2, matrix.getWidth());
+		assertEquals(matrix.getWidth(), matrix.getHeight());
+
+		BitMatrix robust = GoogleQrWriter.generateQrMatrix("Test", "test@test.com", secret,
+				QrOptions.builder().size(0).quietZone(2).errorCorrection(ErrorCorrectionLevel.H).build());
+		assertTrue(robust.getWidth() > matrix.getWidth());
+	}
+
+	@Test
+	public void writeQr_svg() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GoogleQrWriter.writeQr("Test", "test@test.com", secret, QrOptions.builder().size(0).build(), QrFormat.SVG, out);
+
+		String svg = new String(out.toByteArray(), Charsets.UTF_8);
+		assertTrue(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 45 45\""));
+		// top left finder pattern starts after the quiet zone and is 7 modules wide
+		assertTrue(svg.contains("M4 4h7v1h-7z"));
+	}
+
+	@Test
+	public void writeQr_nativePngIsSmall() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GoogleQrWriter.writeQr("Test", "test@test.com", secret, QrOptions.builder().size(0).build(), QrFormat.PNG, out);
+
+		assertTrue(out.size() < 400);
+	}
 }
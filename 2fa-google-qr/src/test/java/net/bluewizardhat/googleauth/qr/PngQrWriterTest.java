@@ -0,0 +1,64 @@
+package net.bluewizardhat.googleauth.qr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.google.zxing.common.BitMatrix;
+
+public class PngQrWriterTest {
+	private String secret = "72NSHUOFUBTZU25KWAHUWUBUFABU34I2";
+
+	@Test
+	public void write_decodesToSamePixels() throws IOException {
+		BitMatrix matrix = PngQrWriter.generateQrMatrix("Test", "test@test.com", secret);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (PngQrWriter writer = new PngQrWriter()) {
+			writer.write(matrix, out);
+		}
+
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+		BufferedImage expected = GoogleQrWriter.generateQr("Test", "test@test.com", secret);
+		assertEquals(expected.getWidth(), image.getWidth());
+		assertEquals(expected.getHeight(), image.getHeight());
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), image.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void write_oddWidthAndReusedWriter() throws IOException {
+		BitMatrix matrix = new BitMatrix(13, 3);
+		matrix.set(0, 0);
+		matrix.set(12, 2);
+
+		try (PngQrWriter writer = new PngQrWriter()) {
+			for (int i = 0; i < 2; i++) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				writer.write(matrix, out);
+				BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+
+				assertEquals(13, image.getWidth());
+				assertEquals(0xff000000, image.getRGB(0, 0));
+				assertEquals(0xffffffff, image.getRGB(1, 0));
+				assertEquals(0xff000000, image.getRGB(12, 2));
+			}
+		}
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void write_afterCloseFails() throws IOException {
+		PngQrWriter writer = new PngQrWriter();
+		writer.close();
+		writer.write(new BitMatrix(8, 8), new ByteArrayOutputStream());
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth.stub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server standing in for the YubiCloud validation servers, for load and integration testing without
+ * real Yubikeys or network access.
+ *
+ * <p>Implements the verify call of the validation protocol version 2.0 at {@code /wsapi/2.0/verify}: requests are
+ * checked against the registered clients and their HMAC-SHA1 signature when present, the nonce must be 16 to 40
+ * alphanumeric characters and responses are signed with the client's api key. Any OTP that is 32 to 48 modhex
+ * characters is considered valid the first time it is seen, the same OTP again gives REPLAYED_OTP, or
+ * REPLAYED_REQUEST if the nonce is also the same.
+ *
+ * <p>A fixed latency can be added to each response and a fraction of requests can be made to fail with BACKEND_ERROR
+ * or with an HTTP 500 to test timeouts, failover and error handling.
+ *
+ * @author bluewizardhat
+ */
+@Slf4j
+public class YubiCloudStubServer implements Closeable {
+	public static final String VERIFY_PATH = "/wsapi/2.0/verify";
+
+	private static final Pattern NONCE = Pattern.compile("[A-Za-z0-9]{16,40}");
+	private static final Pattern OTP = Pattern.compile("[cbdefghijklnrtuv]{32,48}");
+	private static final int MAX_REMEMBERED_OTPS = 1000000;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ConcurrentMap<Integer, byte[]> clients = new ConcurrentHashMap<>();
+	private final Cache<String, String> seenOtps = CacheBuilder.newBuilder().maximumSize(MAX_REMEMBERED_OTPS).build();
+
+	/**
+	 * Milliseconds added to each response
+	 */
+	@Getter @Setter
+	private volatile long latencyMillis;
+
+	/**
+	 * Fraction of requests, 0 to 1, answered with status BACKEND_ERROR
+	 */
+	@Getter @Setter
+	private volatile double backendErrorRate;
+
+	/**
+	 * Fraction of requests, 0 to 1, answered with HTTP status 500
+	 */
+	@Getter @Setter
+	private volatile double httpErrorRate;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final Set<InetSocketAddress> connections = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+	/**
+	 * Starts a server on the port, 0 for any free port
+	 */
+	public YubiCloudStubServer(int port) throws IOException {
+		executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("yubicloud-stub-%d").setDaemon(true).build());
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.setExecutor(executor);
+		server.createContext(VERIFY_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleVerify(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		log.debug("YubiCloud stub listening on {}", getVerifyUrl());
+	}
+
+	/**
+	 * Registers a client id with its base64 encoded api key
+	 */
+	public void addClient(int clientId, @NonNull String apiKey) {
+		clients.put(clientId, BaseEncoding.base64().decode(apiKey));
+	}
+
+	/**
+	 * Number of verify requests received
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Number of distinct client connections verify requests have been received on, lower than the number of requests
+	 * when clients reuse connections
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Url to configure as validation server in a YubicoClient
+	 */
+	public String getVerifyUrl() {
+		return "http://localhost:" + getPort() + VERIFY_PATH;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handleVerify(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		connections.add(exchange.getRemoteAddress());
+		if (latencyMillis > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		Random random = ThreadLocalRandom.current();
+		if (httpErrorRate > 0 && random.nextDouble() < httpErrorRate) {
+			byte[] body = "Internal Server Error".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(500, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+			return;
+		}
+
+		String query = exchange.getRequestURI().getRawQuery();
+		Map<String, String> params = new LinkedHashMap<>();
+		List<String> signedParams = new ArrayList<>();
+		for (String param : query != null ? query.split("&") : new String[0]) {
+			int eq = param.indexOf('=');
+			String key = eq < 0 ? param : param.substring(0, eq);
+			params.put(key, eq < 0 ? "" : URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+			if (!"h".equals(key)) {
+				signedParams.add(param);
+			}
+		}
+
+		SortedMap<String, String> response = new TreeMap<>();
+		response.put("t", timestamp());
+		byte[] apiKey = verify(params, signedParams, response, random);
+		respond(exchange, response, apiKey);
+	}
+
+	/**
+	 * Fills in the status of the response and returns the api key to sign it with, if the client is known
+	 */
+	private byte[] verify(Map<String, String> params, List<String> signedParams, SortedMap<String, String> response, Random random) {
+		String otp = params.get("otp");
+		String nonce = params.get("nonce");
+		if (otp != null) {
+			response.put("otp", otp);
+		}
+		if (nonce != null) {
+			response.put("nonce", nonce);
+		}
+
+		Integer clientId;
+		try {
+			clientId = Integer.valueOf(params.get("id"));
+		} catch (NumberFormatException e) {
+			response.put("status", "MISSING_PARAMETER");
+			return null;
+		}
+		byte[] apiKey = clients.get(clientId);
+		if (apiKey == null) {
+			response.put("status", "NO_SUCH_CLIENT");
+			return null;
+		}
+
+		String h = params.get("h");
+		if (h != null) {
+			Collections.sort(signedParams);
+			byte[] expected = hmac(apiKey, Joiner.on('&').join(signedParams));
+			if (!MessageDigest.isEqual(expected, BaseEncoding.base64().decode(h))) {
+				response.put("status", "BAD_SIGNATURE");
+				return apiKey;
+			}
+		}
+
+		if (otp == null || nonce == null || !NONCE.matcher(nonce).matches()) {
+			response.put("status", "MISSING_PARAMETER");
+			return apiKey;
+		}
+		if (!OTP.matcher(otp).matches()) {
+			response.put("status", "BAD_OTP");
+			return apiKey;
+		}
+		if (params.containsKey("sl")) {
+			response.put("sl", "100");
+		}
+		if (backendErrorRate > 0 && random.nextDouble() < backendErrorRate) {
+			response.put("status", "BACKEND_ERROR");
+			return apiKey;
+		}
+
+		String previousNonce = seenOtps.asMap().putIfAbsent(otp, nonce);
+		if (previousNonce == null) {
+			response.put("status", "OK");
+			if ("1".equals(params.get("timestamp"))) {
+				response.put("timestamp", Long.toString((System.currentTimeMillis() / 125) & 0xffffff));
+				response.put("sessioncounter", "1");
+				response.put("sessionuse", "1");
+			}
+		} else {
+			response.put("status", previousNonce.equals(nonce) ? "REPLAYED_REQUEST" : "REPLAYED_OTP");
+		}
+		return apiKey;
+	}
+
+	private static void respond(HttpExchange exchange, SortedMap<String, String> response, byte[] apiKey) throws IOException {
+		StringBuilder body = new StringBuilder();
+		// without a known client there is no key to sign with, the h line is still sent empty like YubiCloud does
+		String h = apiKey != null ? BaseEncoding.base64().encode(hmac(apiKey, Joiner.on('&').withKeyValueSeparator("=").join(response))) : "";
+		body.append("h=").append(h).append("\r\n");
+		for (Map.Entry<String, String> entry : response.entrySet()) {
+			body.append(entry.getKey()).append('=').append(entry.getValue()).append("\r\n");
+		}
+
+		byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] hmac(byte[] key, String data) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA1");
+			mac.init(new SecretKeySpec(key, "HmacSHA1"));
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw Throwables.propagate(e);
+		}
+	}
+
+	private static String timestamp() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z0'SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date());
+	}
+
+	/**
+	 * Runs a stub server from the command line:
+	 * <pre>YubiCloudStubServer &lt;port&gt; &lt;clientId&gt; &lt;apiKey&gt; [latencyMillis] [backendErrorRate] [httpErrorRate]</pre>
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 3 || args.length > 6) {
+			System.err.println("Usage: YubiCloudStubServer <port> <clientId> <apiKey> [latencyMillis] [backendErrorRate] [httpErrorRate]");
+			System.exit(1);
+		}
+
+		YubiCloudStubServer server = new YubiCloudStubServer(Integer.parseInt(args[0]));
+		server.addClient(Integer.parseInt(args[1]), args[2]);
+		if (args.length > 3) {
+			server.setLatencyMillis(Long.parseLong(args[3]));
+		}
+		if (args.length > 4) {
+			server.setBackendErrorRate(Double.parseDouble(args[4]));
+		}
+		if (args.length > 5) {
+			server.setHttpErrorRate(Double.parseDouble(args[5]));
+		}
+		System.err.println("YubiCloud stub listening on " + server.getVerifyUrl());
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,86 @@
+package net.bluewizardhat.yubiauth.stub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+import com.yubico.client.v2.exceptions.YubicoValidationFailure;
+import com.yubico.client.v2.exceptions.YubicoVerificationException;
+
+public class YubiCloudStubServerTest {
+	private static final int CLIENT_ID = 4711;
+	private static final String API_KEY = "c2VjcmV0IGFwaSBrZXkgZm9yIHRlc3Q=";
+	private static final String OTP = "ccccccbchvthlivuitriujjifivbvtrjkjfirllluurj";
+
+	private YubiCloudStubServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new YubiCloudStubServer(0);
+		server.addClient(CLIENT_ID, API_KEY);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void verify_okThenReplayed() throws Exception {
+		YubicoClient client = client(CLIENT_ID, API_KEY);
+
+		VerificationResponse response = client.verify(OTP);
+		assertEquals(ResponseStatus.OK, response.getStatus());
+		assertEquals(OTP, response.getOtp());
+		assertNotNull(response.getTimestamp());
+
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(OTP).getStatus());
+		assertEquals(ResponseStatus.OK, client.verify(OTP.replace('j', 'k')).getStatus());
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test(expected = YubicoValidationFailure.class)
+	public void verify_unknownClient() throws Exception {
+		// NO_SUCH_CLIENT can't be signed, which the Yubico client reports as a validation failure
+		client(42, API_KEY).verify(OTP);
+	}
+
+	@Test
+	public void verify_wrongApiKey() throws Exception {
+		assertEquals(ResponseStatus.BAD_SIGNATURE, client(CLIENT_ID, "d3JvbmcgYXBpIGtleQ==").verify(OTP).getStatus());
+	}
+
+	@Test
+	public void verify_backendErrorInjection() throws Exception {
+		server.setBackendErrorRate(1.0);
+		assertEquals(ResponseStatus.BACKEND_ERROR, client(CLIENT_ID, API_KEY).verify(OTP).getStatus());
+		server.setBackendErrorRate(0);
+		assertEquals(ResponseStatus.OK, client(CLIENT_ID, API_KEY).verify(OTP).getStatus());
+	}
+
+	@Test(expected = YubicoVerificationException.class)
+	public void verify_httpErrorInjection() throws Exception {
+		server.setHttpErrorRate(1.0);
+		client(CLIENT_ID, API_KEY).verify(OTP);
+	}
+
+	@Test
+	public void verify_latency() throws Exception {
+		server.setLatencyMillis(200);
+		long start = System.currentTimeMillis();
+		client(CLIENT_ID, API_KEY).verify(OTP);
+		assertEquals(true, System.currentTimeMillis() - start >= 200);
+	}
+
+	private YubicoClient client(int clientId, String apiKey) {
+		YubicoClient client = YubicoClient.getClient(clientId, apiKey);
+		client.setWsapiUrls(new String[] { server.getVerifyUrl() });
+		return client;
+	}
+}
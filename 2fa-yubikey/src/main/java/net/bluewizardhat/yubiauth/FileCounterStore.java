@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+import lombok.NonNull;
+
+/**
+ * A {@link LocalYubicoClient.CounterStore} keeping the counters of the last accepted OTP of each key in a file with
+ * lines of "publicId,useCounter,sessionCounter". The file is rewritten to a temporary file and moved in place on each
+ * accepted OTP, so it is never left half written.
+ *
+ * @author bluewizardhat
+ */
+public class FileCounterStore implements LocalYubicoClient.CounterStore {
+	private final Path file;
+	private final Map<String, int[]> counters = new TreeMap<>();
+
+	/**
+	 * Reads the counters from the file, if it exists
+	 */
+	public FileCounterStore(@NonNull Path file) throws IOException {
+		this.file = file;
+		if (Files.exists(file)) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.isEmpty()) {
+						continue;
+					}
+					String[] fields = line.split(",");
+					if (fields.length != 3) {
+						throw new IllegalArgumentException("Expected publicId,useCounter,sessionCounter but got: " + line);
+					}
+					counters.put(fields[0], new int[] { Integer.parseInt(fields[1]), Integer.parseInt(fields[2]) });
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores the stored counters into the keys of a client
+	 * @return the number of keys restored
+	 */
+	public synchronized int restore(@NonNull LocalYubicoClient client) {
+		int count = 0;
+		for (Map.Entry<String, int[]> entry : counters.entrySet()) {
+			if (client.restoreCounters(entry.getKey(), entry.getValue()[0], entry.getValue()[1])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void save(@NonNull String publicId, int useCounter, int sessionCounter) throws IOException {
+		int[] previous = counters.get(publicId);
+		if (previous != null && (useCounter < previous[0] || (useCounter == previous[0] && sessionCounter <= previous[1]))) {
+			// a concurrent verification already saved higher counters
+			return;
+		}
+		counters.put(publicId, new int[] { useCounter, sessionCounter });
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, int[]> entry : counters.entrySet()) {
+				writer.write(entry.getKey() + "," + entry.getValue()[0] + "," + entry.getValue()[1]);
+				writer.newLine();
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+import com.yubico.client.v2.exceptions.YubicoValidationFailure;
+import com.yubico.client.v2.exceptions.YubicoVerificationException;
+
+import lombok.NonNull;
+
+/**
+ * A {@link YubicoClient} that sends each verification to a single validation server and hedges to the next server
+ * only when the first is slow or fails.
+ *
+ * <p>The standard client sends every verification to all servers at once. This client instead keeps latency
+ * statistics per server and sends the verification to the server with the lowest p95 latency among those that
+ * have not been failing. If no answer arrives within that server's p95 latency, or the server fails, the
+ * verification is also sent to the next server and the first conclusive answer wins. A server that fails a number of
+ * times in a row gets its circuit opened and is skipped for a while, after which a single request is let through to
+ * test it. Attempts that lose to another server are cancelled and count neither as a failure nor towards latency.
+ *
+ * <p>A REPLAYED_OTP answer while another attempt is still outstanding is not conclusive since the replay may be
+ * our own hedge arriving at a synchronized server, so the other attempt is awaited.
+ *
+ * @author bluewizardhat
+ */
+public class HedgedYubicoClient extends YubicoClient {
+	public static final long DEFAULT_INITIAL_HEDGE_DELAY_MILLIS = 300;
+	public static final long DEFAULT_MIN_HEDGE_DELAY_MILLIS = 20;
+	public static final long DEFAULT_MAX_HEDGE_DELAY_MILLIS = 2000;
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+	public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+	private static final int LATENCY_SAMPLES = 128;
+
+	private static class Server {
+		private final YubicoClient client;
+		private final String url;
+
+		private final long[] latencies = new long[LATENCY_SAMPLES];
+		private int latencyCount;
+		private int latencyIndex;
+
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong hedges = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private volatile long openUntil;
+
+		Server(YubicoClient client) {
+			this.client = client;
+			this.url = client.getWsapiUrls()[0];
+		}
+
+		synchronized void recordLatency(long millis) {
+			latencies[latencyIndex] = millis;
+			latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+			latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+		}
+
+		synchronized long percentile(double percentile) {
+			if (latencyCount == 0) {
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(latencies, latencyCount);
+			Arrays.sort(sorted);
+			return sorted[(int) Math.ceil(percentile * latencyCount) - 1];
+		}
+
+		boolean isOpen(long now) {
+			return openUntil > now;
+		}
+
+		/**
+		 * Returns true if a request may be sent, when the open period has passed a single trial request is allowed
+		 */
+		boolean tryAcquire(long now, long openMillis) {
+			long until = openUntil;
+			if (until == 0) {
+				return true;
+			}
+			if (until > now) {
+				return false;
+			}
+			// half open, let one request through and keep the circuit open for others until it completes
+			synchronized (this) {
+				if (openUntil != until) {
+					return false;
+				}
+				openUntil = now + openMillis;
+				return true;
+			}
+		}
+
+		void recordSuccess() {
+			consecutiveFailures.set(0);
+			openUntil = 0;
+		}
+
+		void recordFailure(long now, int failureThreshold, long openMillis) {
+			failures.incrementAndGet();
+			if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+				openUntil = now + openMillis;
+			}
+		}
+
+		ServerStats stats(long now) {
+			return ServerStats.builder()
+					.url(url)
+					.requests(requests.get())
+					.hedges(hedges.get())
+					.failures(failures.get())
+					.p50Millis(percentile(0.50))
+					.p95Millis(percentile(0.95))
+					.p99Millis(percentile(0.99))
+					.circuitOpen(isOpen(now))
+					.build();
+		}
+	}
+
+	private static class Attempt {
+		private final Server server;
+		private final VerificationResponse response;
+		private final Exception failure;
+
+		Attempt(Server server, VerificationResponse response, Exception failure) {
+			this.server = server;
+			this.response = response;
+			this.failure = failure;
+		}
+	}
+
+	private final List<Server> servers;
+	private final ExecutorService executor;
+	private final long initialHedgeDelayMillis;
+	private final long minHedgeDelayMillis;
+	private final long maxHedgeDelayMillis;
+	private final int failureThreshold;
+	private final long openMillis;
+
+	/**
+	 * Creates a client with one server per url, all using the same client id and api key
+	 */
+	public static HedgedYubicoClient create(@NonNull Integer clientId, @NonNull String apiKey, @NonNull String[] urls,
+			@NonNull ExecutorService executor) {
+		List<YubicoClient> clients = new ArrayList<>(urls.length);
+		for (String url : urls) {
+			YubicoClient client = YubicoClient.getClient(clientId, apiKey);
+			client.setWsapiUrls(new String[] { url });
+			clients.add(client);
+		}
+		HedgedYubicoClient hedgedClient = new HedgedYubicoClient(clients, executor);
+		hedgedClient.setClientId(clientId);
+		return hedgedClient;
+	}
+
+	/**
+	 * Creates a client with one server per url, all using the same client id, api key and transport
+	 */
+	public static HedgedYubicoClient create(@NonNull Integer clientId, @NonNull String apiKey, @NonNull String[] urls,
+			@NonNull ExecutorService executor, @NonNull YubicoTransport transport) {
+		List<YubicoClient> clients = new ArrayList<>(urls.length);
+		for (String url : urls) {
+			YubicoClient client = new TransportYubicoClient(clientId, apiKey, transport);
+			client.setWsapiUrls(new String[] { url });
+			clients.add(client);
+		}
+		HedgedYubicoClient hedgedClient = new HedgedYubicoClient(clients, executor);
+		hedgedClient.setClientId(clientId);
+		return hedgedClient;
+	}
+
+	/**
+	 * @param servers one client per validation server, each configured with a single url
+	 * @param executor executor requests to the servers run on, the caller is responsible for shutting it down
+	 */
+	public HedgedYubicoClient(@NonNull List<YubicoClient> servers, @NonNull ExecutorService executor) {
+		this(servers, executor, DEFAULT_INITIAL_HEDGE_DELAY_MILLIS, DEFAULT_MIN_HEDGE_DELAY_MILLIS, DEFAULT_MAX_HEDGE_DELAY_MILLIS,
+				DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+	}
+
+	/**
+	 * @param servers one client per validation server, each configured with a single url
+	 * @param executor executor requests to the servers run on, the caller is responsible for shutting it down
+	 * @param initialHedgeDelayMillis hedge delay for a server without latency statistics yet
+	 * @param minHedgeDelayMillis lower bound for the p95 based hedge delay
+	 * @param maxHedgeDelayMillis upper bound for the p95 based hedge delay
+	 * @param failureThreshold consecutive failures after which the circuit of a server is opened
+	 * @param openMillis time a server is skipped once its circuit is opened
+	 */
+	public HedgedYubicoClient(@NonNull List<YubicoClient> servers, @NonNull ExecutorService executor, long initialHedgeDelayMillis,
+			long minHedgeDelayMillis, long maxHedgeDelayMillis, int failureThreshold, long openMillis) {
+		if (servers.isEmpty()) {
+			throw new IllegalArgumentException("At least one server is required");
+		}
+		if (minHedgeDelayMillis < 0 || maxHedgeDelayMillis < minHedgeDelayMillis) {
+			throw new IllegalArgumentException("Invalid hedge delay bounds");
+		}
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("failureThreshold must be positive");
+		}
+		List<Server> list = new ArrayList<>(servers.size());
+		String[] urls = new String[servers.size()];
+		for (YubicoClient client : servers) {
+			Server server = new Server(client);
+			urls[list.size()] = server.url;
+			list.add(server);
+		}
+		this.servers = Collections.unmodifiableList(list);
+		this.executor = executor;
+		this.initialHedgeDelayMillis = initialHedgeDelayMillis;
+		this.minHedgeDelayMillis = minHedgeDelayMillis;
+		this.maxHedgeDelayMillis = maxHedgeDelayMillis;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		super.setWsapiUrls(urls);
+	}
+
+	/**
+	 * The urls are given by the per server clients and can not be changed
+	 */
+	@Override
+	public void setWsapiUrls(String[] wsapi) {
+		throw new UnsupportedOperationException("Servers are fixed when the HedgedYubicoClient is created");
+	}
+
+	/**
+	 * Returns statistics for each server
+	 */
+	public List<ServerStats> getServerStats() {
+		long now = System.currentTimeMillis();
+		List<ServerStats> stats = new ArrayList<>(servers.size());
+		for (Server server : servers) {
+			stats.add(server.stats(now));
+		}
+		return stats;
+	}
+
+	@Override
+	public VerificationResponse verify(String otp) throws YubicoVerificationException, YubicoValidationFailure {
+		List<Server> candidates = orderedServers();
+		CompletionService<Attempt> completionService = new ExecutorCompletionService<>(executor);
+		List<Future<Attempt>> outstanding = new ArrayList<>(candidates.size());
+		int next = 0;
+
+		VerificationResponse inconclusive = null;
+		Exception lastFailure = null;
+		AtomicBoolean decided = new AtomicBoolean();
+		try {
+			next = submit(completionService, outstanding, candidates, next, otp, decided, false);
+			while (!outstanding.isEmpty()) {
+				Future<Attempt> done;
+				if (next < candidates.size()) {
+					done = completionService.poll(hedgeDelay(outstanding.size() == 1 ? candidates.get(next - 1) : null), TimeUnit.MILLISECONDS);
+					if (done == null) {
+						next = submit(completionService, outstanding, candidates, next, otp, decided, true);
+						continue;
+					}
+				} else {
+					done = completionService.take();
+				}
+				outstanding.remove(done);
+
+				Attempt attempt = done.get();
+				if (attempt.failure instanceof YubicoValidationFailure) {
+					throw (YubicoValidationFailure) attempt.failure;
+				} else if (attempt.failure != null || isServerError(attempt.response.getStatus())) {
+					lastFailure = attempt.failure;
+					inconclusive = attempt.response != null ? attempt.response : inconclusive;
+					if (outstanding.isEmpty()) {
+						// fail over straight away rather than waiting for the hedge delay
+						next = submit(completionService, outstanding, candidates, next, otp, decided, true);
+					}
+				} else if (attempt.response.getStatus() == ResponseStatus.REPLAYED_OTP && !outstanding.isEmpty()) {
+					inconclusive = attempt.response;
+				} else {
+					return attempt.response;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new YubicoVerificationException("Validation interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new YubicoVerificationException("Exception while executing validation.", e.getCause());
+		} finally {
+			// set before cancelling, so the attempts that lost do not take the interrupt for a server failure
+			decided.set(true);
+			for (Future<Attempt> future : outstanding) {
+				future.cancel(true);
+			}
+		}
+
+		if (inconclusive != null) {
+			return inconclusive;
+		}
+		throw new YubicoVerificationException("No validation server answered.", lastFailure);
+	}
+
+	/**
+	 * Servers ordered by circuit state, then by consecutive failures and then by p95 latency
+	 */
+	private List<Server> orderedServers() {
+		final long now = System.currentTimeMillis();
+		final Map<Server, long[]> keys = new IdentityHashMap<>(servers.size());
+		for (Server server : servers) {
+			keys.put(server, new long[] { server.isOpen(now) ? 1 : 0, server.consecutiveFailures.get(), server.percentile(0.95) });
+		}
+		List<Server> ordered = new ArrayList<>(servers);
+		Collections.sort(ordered, new Comparator<Server>() {
+			@Override
+			public int compare(Server s1, Server s2) {
+				long[] key1 = keys.get(s1);
+				long[] key2 = keys.get(s2);
+				for (int i = 0; i < key1.length; i++) {
+					if (key1[i] != key2[i]) {
+						// servers without latency statistics (-1) go first so they get some
+						return Long.compare(key1[i], key2[i]);
+					}
+				}
+				return 0;
+			}
+		});
+		return ordered;
+	}
+
+	private long hedgeDelay(Server server) {
+		long p95 = server != null ? server.percentile(0.95) : -1;
+		if (p95 < 0) {
+			return initialHedgeDelayMillis;
+		}
+		return Math.min(maxHedgeDelayMillis, Math.max(minHedgeDelayMillis, p95));
+	}
+
+	/**
+	 * Submits a request to the next server whose circuit allows it, returns the index after the server used
+	 */
+	private int submit(CompletionService<Attempt> completionService, List<Future<Attempt>> outstanding, List<Server> candidates,
+			int next, String otp, AtomicBoolean decided, boolean hedge) {
+		long now = System.currentTimeMillis();
+		while (next < candidates.size()) {
+			Server server = candidates.get(next++);
+			// the last resort is tried even with an open circuit, failing without trying any server helps nobody
+			boolean lastResort = outstanding.isEmpty() && next == candidates.size();
+			if (server.tryAcquire(now, openMillis) || lastResort) {
+				try {
+					outstanding.add(completionService.submit(attempt(server, otp, decided)));
+				} catch (RejectedExecutionException e) {
+					continue;
+				}
+				server.requests.incrementAndGet();
+				if (hedge) {
+					server.hedges.incrementAndGet();
+				}
+				return next;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @param decided set once the verification has its answer, any attempt still running then is a loser being cancelled
+	 */
+	private Callable<Attempt> attempt(final Server server, final String otp, final AtomicBoolean decided) {
+		return new Callable<Attempt>() {
+			@Override
+			public Attempt call() {
+				long start = System.nanoTime();
+				try {
+					VerificationResponse response = server.client.verify(otp);
+					server.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+					if (isServerError(response.getStatus())) {
+						server.recordFailure(System.currentTimeMillis(), failureThreshold, openMillis);
+					} else {
+						server.recordSuccess();
+					}
+					return new Attempt(server, response, null);
+				} catch (YubicoValidationFailure e) {
+					return new Attempt(server, null, e);
+				} catch (YubicoVerificationException | RuntimeException e) {
+					// the client wraps the interrupt of a cancelled attempt, the server was only slower than another one
+					// and its latency is not known, so nothing is recorded
+					if (!decided.get()) {
+						server.recordFailure(System.currentTimeMillis(), failureThreshold, openMillis);
+					}
+					return new Attempt(server, null, e);
+				}
+			}
+		};
+	}
+
+	private static boolean isServerError(ResponseStatus status) {
+		return status == ResponseStatus.BACKEND_ERROR || status == ResponseStatus.NOT_ENOUGH_ANSWERS ||
+				status == ResponseStatus.REPLAYED_REQUEST;
+	}
+}
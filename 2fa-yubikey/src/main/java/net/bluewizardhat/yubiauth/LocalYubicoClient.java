@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+
+import lombok.NonNull;
+
+/**
+ * A {@link YubicoClient} that validates Yubico OTPs locally against a key store instead of asking the Yubico servers,
+ * for Yubikeys that have been programmed with our own AES keys.
+ *
+ * <p>An OTP is the modhex encoded public id followed by 32 modhex characters of AES-128 encrypted token. The token
+ * holds the private id, the usage and session counters, a timestamp, some random bytes and a CRC. An OTP verifies if
+ * the public id is known, the token decrypts with its key to a valid CRC and the expected private id, and the counters
+ * are higher than those of the last OTP accepted for the key. Otherwise the response is BAD_OTP, or REPLAYED_OTP if
+ * the counters are not higher.
+ *
+ * <p>Counters are kept in memory. To keep previously seen OTPs from being accepted again after the client is recreated,
+ * set a {@link CounterStore} that saves the counters of each accepted OTP, like {@link FileCounterStore}, and restore
+ * them with {@link #restoreCounters(String, int, int)} or {@link #addKey(String, byte[], byte[], int, int)}.
+ *
+ * @author bluewizardhat
+ */
+public class LocalYubicoClient extends YubicoClient {
+	private static final int TOKEN_LENGTH = 32;
+	private static final int PRIVATE_ID_LENGTH = 6;
+	private static final int CRC_OK_RESIDUE = 0xf0b8;
+
+	private static class Key {
+		private final byte[] privateId;
+		private final SecretKeySpec aesKey;
+		private int useCounter;
+		private int sessionCounter;
+
+		Key(byte[] privateId, byte[] aesKey, int useCounter, int sessionCounter) {
+			this.privateId = privateId.clone();
+			this.aesKey = new SecretKeySpec(aesKey, "AES");
+			this.useCounter = useCounter;
+			this.sessionCounter = sessionCounter;
+		}
+
+		/**
+		 * Accepts the counters if they are higher than the last accepted ones
+		 */
+		synchronized boolean advance(int useCounter, int sessionCounter) {
+			if (useCounter < this.useCounter || (useCounter == this.useCounter && sessionCounter <= this.sessionCounter)) {
+				return false;
+			}
+			this.useCounter = useCounter;
+			this.sessionCounter = sessionCounter;
+			return true;
+		}
+	}
+
+	/**
+	 * Saves the counters of accepted OTPs so they survive the client being recreated.
+	 */
+	public interface CounterStore {
+		/**
+		 * Called with the counters of each accepted OTP before it is reported as verified. If this throws the
+		 * OTP is reported as a BACKEND_ERROR.
+		 */
+		void save(String publicId, int useCounter, int sessionCounter) throws IOException;
+	}
+
+	private final ConcurrentMap<String, Key> keys = new ConcurrentHashMap<>();
+
+	private volatile CounterStore counterStore;
+
+	public void setCounterStore(CounterStore counterStore) {
+		this.counterStore = counterStore;
+	}
+
+	/**
+	 * Adds a key, replacing any previous key with the same public id
+	 * @param publicId modhex public id of the Yubikey
+	 * @param privateId 6 byte private id programmed into the Yubikey
+	 * @param aesKey 16 byte AES key programmed into the Yubikey
+	 */
+	public void addKey(@NonNull String publicId, @NonNull byte[] privateId, @NonNull byte[] aesKey) {
+		addKey(publicId, privateId, aesKey, -1, -1);
+	}
+
+	/**
+	 * Adds a key with the counters of the last accepted OTP, replacing any previous key with the same public id
+	 */
+	public void addKey(@NonNull String publicId, @NonNull byte[] privateId, @NonNull byte[] aesKey, int useCounter, int sessionCounter) {
+		if (!ModHex.isModHex(publicId)) {
+			throw new IllegalArgumentException("Public id must be modhex");
+		}
+		if (privateId.length != PRIVATE_ID_LENGTH) {
+			throw new IllegalArgumentException("Private id must be " + PRIVATE_ID_LENGTH + " bytes");
+		}
+		if (aesKey.length != 16) {
+			throw new IllegalArgumentException("AES key must be 16 bytes");
+		}
+		keys.put(publicId, new Key(privateId, aesKey, useCounter, sessionCounter));
+	}
+
+	/**
+	 * Raises the counters of the key with the public id to those of the last accepted OTP, if they are lower
+	 * @return false if there is no key with the public id
+	 */
+	public boolean restoreCounters(@NonNull String publicId, int useCounter, int sessionCounter) {
+		Key key = keys.get(publicId);
+		if (key == null) {
+			return false;
+		}
+		key.advance(useCounter, sessionCounter);
+		return true;
+	}
+
+	/**
+	 * Removes the key with the public id
+	 */
+	public void removeKey(@NonNull String publicId) {
+		keys.remove(publicId);
+	}
+
+	/**
+	 * Adds keys from lines of "publicId,privateId,aesKey" with the public id in modhex and the private id and key in hex.
+	 * Empty lines and lines starting with # are skipped.
+	 * @return the number of keys added
+	 */
+	public int loadKeys(@NonNull BufferedReader reader) throws IOException {
+		BaseEncoding hex = BaseEncoding.base16().lowerCase();
+		int count = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s*,\\s*");
+			if (fields.length != 3) {
+				throw new IllegalArgumentException("Expected publicId,privateId,aesKey but got: " + line);
+			}
+			addKey(fields[0], hex.decode(fields[1].toLowerCase()), hex.decode(fields[2].toLowerCase()));
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public VerificationResponse verify(@NonNull String otp) {
+		if (otp.length() <= TOKEN_LENGTH || !ModHex.isModHex(otp)) {
+			return new LocalResponse(ResponseStatus.BAD_OTP, otp, null);
+		}
+		String publicId = otp.substring(0, otp.length() - TOKEN_LENGTH);
+		Key key = keys.get(publicId);
+		if (key == null) {
+			return new LocalResponse(ResponseStatus.BAD_OTP, otp, null);
+		}
+
+		byte[] token = decrypt(key.aesKey, ModHex.decode(otp.substring(publicId.length())));
+		if (crc16(token) != CRC_OK_RESIDUE || !MessageDigest.isEqual(key.privateId, Arrays.copyOf(token, PRIVATE_ID_LENGTH))) {
+			return new LocalResponse(ResponseStatus.BAD_OTP, otp, null);
+		}
+
+		// the top bit of the usage counter is a flag (set for OTPs triggered with caps lock) and not part of the count
+		int useCounter = ((token[6] & 0xff) | (token[7] & 0xff) << 8) & 0x7fff;
+		int timestamp = (token[8] & 0xff) | (token[9] & 0xff) << 8 | (token[10] & 0xff) << 16;
+		int sessionCounter = token[11] & 0xff;
+		Map<String, String> values = new LinkedHashMap<>();
+		values.put("sessioncounter", Integer.toString(useCounter));
+		values.put("sessionuse", Integer.toString(sessionCounter));
+		values.put("timestamp", Integer.toString(timestamp));
+
+		if (!key.advance(useCounter, sessionCounter)) {
+			return new LocalResponse(ResponseStatus.REPLAYED_OTP, otp, values);
+		}
+
+		CounterStore store = counterStore;
+		if (store != null) {
+			try {
+				store.save(publicId, useCounter, sessionCounter);
+			} catch (IOException e) {
+				// not accepting an OTP that could be accepted again after a restart
+				return new LocalResponse(ResponseStatus.BACKEND_ERROR, otp, values);
+			}
+		}
+		return new LocalResponse(ResponseStatus.OK, otp, values);
+	}
+
+	private static byte[] decrypt(SecretKeySpec key, byte[] encrypted) {
+		try {
+			Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, key);
+			return cipher.doFinal(encrypted);
+		} catch (GeneralSecurityException e) {
+			throw Throwables.propagate(e);
+		}
+	}
+
+	/**
+	 * CRC-16 (ISO 13239) as used by Yubikeys, a token including its CRC gives 0xf0b8
+	 */
+	static int crc16(byte[] data) {
+		int crc = 0xffff;
+		for (byte b : data) {
+			crc ^= b & 0xff;
+			for (int i = 0; i < 8; i++) {
+				int carry = crc & 1;
+				crc >>= 1;
+				if (carry != 0) {
+					crc ^= 0x8408;
+				}
+			}
+		}
+		return crc;
+	}
+
+	private static class LocalResponse implements VerificationResponse {
+		private final ResponseStatus status;
+		private final String otp;
+		private final Map<String, String> values;
+
+		LocalResponse(ResponseStatus status, String otp, Map<String, String> values) {
+			this.status = status;
+			this.otp = otp;
+			Map<String, String> all = new LinkedHashMap<>();
+			all.put("otp", otp);
+			all.put("status", status.name());
+			if (values != null) {
+				all.putAll(values);
+			}
+			this.values = Collections.unmodifiableMap(all);
+		}
+
+		@Override
+		public boolean isOk() {
+			return status == ResponseStatus.OK;
+		}
+
+		@Override
+		public String getH() {
+			return null;
+		}
+
+		@Override
+		public String getT() {
+			return null;
+		}
+
+		@Override
+		public ResponseStatus getStatus() {
+			return status;
+		}
+
+		@Override
+		public String getTimestamp() {
+			return values.get("timestamp");
+		}
+
+		@Override
+		public String getSessioncounter() {
+			return values.get("sessioncounter");
+		}
+
+		@Override
+		public String getSessionuse() {
+			return values.get("sessionuse");
+		}
+
+		@Override
+		public String getSl() {
+			return null;
+		}
+
+		@Override
+		public String getOtp() {
+			return otp;
+		}
+
+		@Override
+		public String getNonce() {
+			return null;
+		}
+
+		@Override
+		public Map<String, String> getKeyValueMap() {
+			return values;
+		}
+
+		@Override
+		public String getPublicId() {
+			return otp.length() > TOKEN_LENGTH ? otp.substring(0, otp.length() - TOKEN_LENGTH) : null;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.util.Arrays;
+
+import lombok.NonNull;
+
+/**
+ * Encoding and decoding of Yubico modhex, the hex variant using the characters cbdefghijklnrtuv that Yubikeys
+ * type since they are in the same place on most keyboard layouts.
+ *
+ * @author bluewizardhat
+ */
+public class ModHex {
+	private static final char[] ALPHABET = "cbdefghijklnrtuv".toCharArray();
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		Arrays.fill(VALUES, (byte) -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	private ModHex() {
+		// Utility class. Don't instantiate it.
+	}
+
+	/**
+	 * Returns true if the string is non empty, of even length and only contains (lower case) modhex characters
+	 */
+	public static boolean isModHex(@NonNull CharSequence modhex) {
+		if (modhex.length() == 0 || (modhex.length() & 1) != 0) {
+			return false;
+		}
+		for (int i = 0; i < modhex.length(); i++) {
+			if (value(modhex.charAt(i)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a modhex string
+	 * @throws IllegalArgumentException if the string is not valid modhex
+	 */
+	public static byte[] decode(@NonNull CharSequence modhex) {
+		if ((modhex.length() & 1) != 0) {
+			throw new IllegalArgumentException("Modhex must have an even number of characters");
+		}
+		byte[] bytes = new byte[modhex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = value(modhex.charAt(2 * i));
+			int low = value(modhex.charAt(2 * i + 1));
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Not a modhex character at position " + (high < 0 ? 2 * i : 2 * i + 1));
+			}
+			bytes[i] = (byte) (high << 4 | low);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes bytes as modhex
+	 */
+	public static String encode(@NonNull byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = ALPHABET[(bytes[i] >> 4) & 0x0f];
+			chars[2 * i + 1] = ALPHABET[bytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+
+	private static int value(char c) {
+		return c < VALUES.length ? VALUES[c] : -1;
+	}
+}
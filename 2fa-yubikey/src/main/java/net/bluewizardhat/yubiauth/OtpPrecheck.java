@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.NonNull;
+
+/**
+ * In-process checks run on an OTP before it is sent to the Yubico servers, so that malformed OTPs, OTPs from the
+ * wrong Yubikey and OTPs that have already been verified are rejected in microseconds instead of costing a network
+ * round trip each.
+ *
+ * <p>The stages are run in order and the first one that rejects the OTP is counted:
+ * <ol>
+ * <li>{@link Stage#MODHEX}: the OTP must be modhex, an even number of the characters cbdefghijklnrtuv</li>
+ * <li>{@link Stage#LENGTH}: 32 to 48 characters, 32 characters of token after a public id of up to 16</li>
+ * <li>{@link Stage#PUBLIC_ID}: when a public id is expected the OTP must start with it and be followed by exactly
+ * the token</li>
+ * <li>{@link Stage#RECENTLY_SEEN}: the OTP must not be one the Yubico servers have recently given a conclusive
+ * answer for, such an OTP would only be reported as replayed</li>
+ * </ol>
+ *
+ * <p>Recently seen OTPs are kept in a bounded LRU rather than a bloom filter since a false positive would reject a
+ * valid OTP.
+ *
+ * @author bluewizardhat
+ */
+public class OtpPrecheck {
+	public static final int DEFAULT_RECENTLY_SEEN_SIZE = 100000;
+	public static final long DEFAULT_RECENTLY_SEEN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static final int TOKEN_LENGTH = 32;
+	private static final int MAX_PUBLIC_ID_LENGTH = 16;
+
+	public enum Stage {
+		/**
+		 * The OTP is not modhex
+		 */
+		MODHEX,
+		/**
+		 * The OTP is too short or too long
+		 */
+		LENGTH,
+		/**
+		 * The OTP is not from the expected Yubikey
+		 */
+		PUBLIC_ID,
+		/**
+		 * The OTP has recently been verified
+		 */
+		RECENTLY_SEEN;
+	}
+
+	private final Map<Stage, AtomicLong> rejections = new EnumMap<>(Stage.class);
+	private final Cache<String, Boolean> recentlySeen;
+
+	public OtpPrecheck() {
+		this(DEFAULT_RECENTLY_SEEN_SIZE, DEFAULT_RECENTLY_SEEN_MILLIS);
+	}
+
+	/**
+	 * @param recentlySeenSize maximum number of OTPs remembered as recently seen
+	 * @param recentlySeenMillis time an OTP is remembered as recently seen
+	 */
+	public OtpPrecheck(int recentlySeenSize, long recentlySeenMillis) {
+		for (Stage stage : Stage.values()) {
+			rejections.put(stage, new AtomicLong());
+		}
+		recentlySeen = CacheBuilder.newBuilder()
+				.maximumSize(recentlySeenSize)
+				.expireAfterWrite(recentlySeenMillis, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	/**
+	 * Runs the modhex and length stages
+	 * @return the stage that rejected the OTP or null if it passed
+	 */
+	public Stage checkFormat(@NonNull String otp) {
+		if (!ModHex.isModHex(otp)) {
+			return reject(Stage.MODHEX);
+		}
+		if (otp.length() < TOKEN_LENGTH || otp.length() > TOKEN_LENGTH + MAX_PUBLIC_ID_LENGTH) {
+			return reject(Stage.LENGTH);
+		}
+		return null;
+	}
+
+	/**
+	 * Runs the modhex, length and public id stages
+	 * @return the stage that rejected the OTP or null if it passed
+	 */
+	public Stage checkFormat(@NonNull String otp, @NonNull String expectedPublicId) {
+		Stage stage = checkFormat(otp);
+		if (stage != null) {
+			return stage;
+		}
+		if (otp.length() != expectedPublicId.length() + TOKEN_LENGTH || !otp.startsWith(expectedPublicId)) {
+			return reject(Stage.PUBLIC_ID);
+		}
+		return null;
+	}
+
+	/**
+	 * Runs the recently seen stage
+	 * @return the stage that rejected the OTP or null if it passed
+	 */
+	public Stage checkRecentlySeen(@NonNull String otp) {
+		if (recentlySeen.getIfPresent(otp) != null) {
+			return reject(Stage.RECENTLY_SEEN);
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers an OTP the Yubico servers have given a conclusive answer for
+	 */
+	public void markSeen(@NonNull String otp) {
+		recentlySeen.put(otp, Boolean.TRUE);
+	}
+
+	/**
+	 * Number of OTPs rejected by each stage
+	 */
+	public Map<Stage, Long> getRejections() {
+		Map<Stage, Long> counts = new EnumMap<>(Stage.class);
+		for (Map.Entry<Stage, AtomicLong> entry : rejections.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	private Stage reject(Stage stage) {
+		rejections.get(stage).incrementAndGet();
+		return stage;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link YubicoTransport} that reuses keep-alive connections, with connect and read timeouts and a limit on the
+ * number of concurrent connections per host.
+ *
+ * <p>Connections are pooled by the JDK's HttpURLConnection keep-alive cache, which keeps an idle connection (and its
+ * TLS session) for reuse when the response body has been read completely and closed. This transport always drains
+ * and closes the response, also on errors, so connections go back to the pool. The number of idle connections kept
+ * per host is the JDK's http.maxConnections system property, 5 by default (see {@link #keepAliveConnectionsPerHost}).
+ * The default maximum number of concurrent connections per host matches it; raising the maximum without raising
+ * http.maxConnections as well means connections beyond it are closed and re-established under load.
+ *
+ * @author bluewizardhat
+ */
+public class PooledHttpTransport implements YubicoTransport {
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+	private static final String USER_AGENT = "2fa-demo yubiauth";
+	private static final int JDK_DEFAULT_KEEP_ALIVE_CONNECTIONS = 5;
+
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final int maxConnectionsPerHost;
+	private final ConcurrentMap<String, Semaphore> connectionsPerHost = new ConcurrentHashMap<>();
+
+	public PooledHttpTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+
+	/**
+	 * @param connectTimeoutMillis time to wait for a connection to be established, or for a free connection when the
+	 * host is at its maximum
+	 * @param readTimeoutMillis time to wait for data from the server
+	 * @param maxConnectionsPerHost maximum number of concurrent requests to a host
+	 */
+	public PooledHttpTransport(int connectTimeoutMillis, int readTimeoutMillis, int maxConnectionsPerHost) {
+		if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Timeouts must be positive");
+		}
+		if (maxConnectionsPerHost <= 0) {
+			throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+		}
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	/**
+	 * Returns the number of idle connections per host the JDK keep-alive cache keeps, the http.maxConnections system
+	 * property or 5 if it is not set or not positive.
+	 */
+	public static int keepAliveConnectionsPerHost() {
+		int connections = Integer.getInteger("http.maxConnections", JDK_DEFAULT_KEEP_ALIVE_CONNECTIONS);
+		return connections > 0 ? connections : JDK_DEFAULT_KEEP_ALIVE_CONNECTIONS;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	@Override
+	public String get(String url) throws IOException {
+		URL parsed = new URL(url);
+		Semaphore connections = connections(parsed.getProtocol() + "://" + parsed.getAuthority());
+		try {
+			if (!connections.tryAcquire(connectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out waiting for a connection to " + parsed.getHost());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a connection to " + parsed.getHost(), e);
+		}
+
+		try {
+			HttpURLConnection connection = (HttpURLConnection) parsed.openConnection();
+			connection.setConnectTimeout(connectTimeoutMillis);
+			connection.setReadTimeout(readTimeoutMillis);
+			connection.setUseCaches(false);
+			connection.setRequestProperty("User-Agent", USER_AGENT);
+			connection.setRequestProperty("Connection", "keep-alive");
+
+			int status;
+			try {
+				status = connection.getResponseCode();
+			} catch (IOException e) {
+				connection.disconnect();
+				throw e;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				// drain the error body too so the connection can be reused
+				readFully(connection.getErrorStream());
+				throw new IOException("Server returned HTTP response code " + status + " for " + parsed.getHost());
+			}
+			return new String(readFully(connection.getInputStream()), StandardCharsets.UTF_8);
+		} finally {
+			connections.release();
+		}
+	}
+
+	private Semaphore connections(String host) {
+		Semaphore connections = connectionsPerHost.get(host);
+		if (connections == null) {
+			Semaphore created = new Semaphore(maxConnectionsPerHost);
+			connections = connectionsPerHost.putIfAbsent(host, created);
+			if (connections == null) {
+				connections = created;
+			}
+		}
+		return connections;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		if (in == null) {
+			return new byte[0];
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
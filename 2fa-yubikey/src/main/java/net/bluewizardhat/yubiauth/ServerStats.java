@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Statistics for one validation server used by a {@link HedgedYubicoClient}
+ *
+ * @author bluewizardhat
+ */
+@Value
+@Builder
+public class ServerStats {
+	/**
+	 * Validation url of the server
+	 */
+	private String url;
+
+	/**
+	 * Number of requests sent to the server
+	 */
+	private long requests;
+
+	/**
+	 * Number of the requests that were hedges, sent because another server was slow or failed
+	 */
+	private long hedges;
+
+	/**
+	 * Number of requests that failed with a communication error or a server side error
+	 */
+	private long failures;
+
+	/**
+	 * Latency percentiles in milliseconds over the most recent requests, -1 if there are none
+	 */
+	private long p50Millis;
+	private long p95Millis;
+	private long p99Millis;
+
+	/**
+	 * Whether the circuit is open, ie the server is skipped because of consecutive failures
+	 */
+	private boolean circuitOpen;
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 BlueWizardHat
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.bluewizardhat.yubiauth;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import com.yubico.client.v2.HttpUtils;
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.Signature;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+import com.yubico.client.v2.exceptions.YubicoInvalidResponse;
+import com.yubico.client.v2.exceptions.YubicoSignatureException;
+import com.yubico.client.v2.exceptions.YubicoValidationFailure;
+import com.yubico.client.v2.exceptions.YubicoVerificationException;
+import com.yubico.client.v2.impl.VerificationResponseImpl;
+
+import lombok.NonNull;
+
+/**
+ * A {@link YubicoClient} speaking the validation protocol 2.0 over a pluggable {@link YubicoTransport}, such as the
+ * keep-alive {@link PooledHttpTransport}.
+ *
+ * <p>Requests and response checks are the same as in the standard client: a random nonce, the request signed with
+ * the api key, and the response signature, OTP and nonce verified. Unlike the standard client, which fans out to all
+ * servers on its own thread pool, the request is made on the calling thread to one server at a time, trying the next
+ * only if a server fails. Hedging across servers is left to {@link HedgedYubicoClient}.
+ *
+ * @author bluewizardhat
+ */
+public class TransportYubicoClient extends YubicoClient {
+	private final YubicoTransport transport;
+
+	/**
+	 * @param clientId Yubico client id
+	 * @param apiKey base64 encoded api key, or null to neither sign requests nor check response signatures
+	 * @param transport transport to make the requests with
+	 */
+	public TransportYubicoClient(@NonNull Integer clientId, String apiKey, @NonNull YubicoTransport transport) {
+		this.transport = transport;
+		setClientId(clientId);
+		if (apiKey != null) {
+			setKey(apiKey);
+		}
+	}
+
+	@Override
+	public VerificationResponse verify(@NonNull String otp) throws YubicoVerificationException, YubicoValidationFailure {
+		String nonce = UUID.randomUUID().toString().replace("-", "");
+		Map<String, String> params = new TreeMap<>();
+		params.put("id", clientId.toString());
+		params.put("nonce", nonce);
+		params.put("otp", otp);
+		params.put("timestamp", "1");
+		if (sync != null) {
+			params.put("sl", sync.toString());
+		}
+
+		String query;
+		try {
+			query = HttpUtils.toQueryString(params);
+			if (key != null) {
+				query = query + "&h=" + URLEncoder.encode(Signature.calculate(query, key), "UTF-8");
+			}
+		} catch (IOException | YubicoSignatureException e) {
+			throw new YubicoVerificationException("Failed to build the request.", e);
+		}
+
+		YubicoVerificationException lastFailure = null;
+		for (String url : getWsapiUrls()) {
+			VerificationResponse response;
+			try {
+				String body = transport.get(url + "?" + query);
+				response = new VerificationResponseImpl(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+			} catch (IOException | YubicoInvalidResponse e) {
+				lastFailure = new YubicoVerificationException("Exception when requesting " + url, e);
+				continue;
+			}
+			if (response.getStatus() == ResponseStatus.REPLAYED_REQUEST) {
+				continue;
+			}
+			checkResponse(response, otp, nonce);
+			return response;
+		}
+		throw lastFailure != null ? lastFailure : new YubicoVerificationException("No validation server answered.");
+	}
+
+	private void checkResponse(VerificationResponse response, String otp, String nonce)
+			throws YubicoValidationFailure, YubicoVerificationException {
+		if (key != null && response.getStatus() != ResponseStatus.BAD_SIGNATURE) {
+			StringBuilder signed = new StringBuilder();
+			for (Map.Entry<String, String> entry : response.getKeyValueMap().entrySet()) {
+				if (!"h".equals(entry.getKey())) {
+					signed.append(signed.length() > 0 ? "&" : "").append(entry.getKey()).append('=').append(entry.getValue());
+				}
+			}
+			String expected;
+			try {
+				expected = Signature.calculate(signed.toString(), key).trim();
+			} catch (YubicoSignatureException e) {
+				throw new YubicoVerificationException("Failed to calculate the response signature.", e);
+			}
+			if (!expected.equals(response.getH())) {
+				throw new YubicoValidationFailure("Signatures do not match");
+			}
+		}
+		if (response.getStatus().isError()) {
+			return;
+		}
+		if (!otp.equals(response.getOtp())) {
+			throw new YubicoValidationFailure("OTP mismatch in response, is there a man-in-the-middle?");
+		}
+		if (!nonce.equals(response.getNonce())) {
+			throw new YubicoValidationFailure("Nonce mismatch in response, is there a man-in-the-middle?");
+		}
+	}
+}
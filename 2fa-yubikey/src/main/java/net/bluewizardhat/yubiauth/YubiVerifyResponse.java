@@ -22,6 +22,10 @@
 
 package net.bluewizardhat.yubiauth;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
 import javax.xml.bind.ValidationException;
 
 import com.yubico.client.v2.VerificationResponse;
@@ -53,7 +57,8 @@ public class YubiVerifyResponse {
 		 */
 		BAD_OTP,
 		/**
-		 * An error occured trying to communicate with Yubico servers (YubicoValidationException)
+		 * An error occured trying to communicate with Yubico servers (YubicoValidationException), the verification
+		 * timed out, it could not be queued or the client failed unexpectedly
 		 */
 		ERROR,
 		/**
@@ -78,6 +83,11 @@ public class YubiVerifyResponse {
 	 */
 	private Exception errorCause;
 
+	/**
+	 * The pre-check stage that rejected the OTP without asking the Yubico servers, if any
+	 */
+	private OtpPrecheck.Stage rejectedBy;
+
 	static YubiVerifyResponse ok(VerificationResponse yubicoResponse) {
 		return builder().verifyStatus(VerifyStatus.OK).yubicoResponse(yubicoResponse).build();
 	}
@@ -94,11 +104,29 @@ public class YubiVerifyResponse {
 		return builder().verifyStatus(VerifyStatus.ERROR).errorCause(errorCause).build();
 	}
 	
+	static YubiVerifyResponse error(TimeoutException errorCause) {
+		return builder().verifyStatus(VerifyStatus.ERROR).errorCause(errorCause).build();
+	}
+
+	static YubiVerifyResponse error(RejectedExecutionException errorCause) {
+		return builder().verifyStatus(VerifyStatus.ERROR).errorCause(errorCause).build();
+	}
+
+	static YubiVerifyResponse error(Exception errorCause) {
+		return builder().verifyStatus(VerifyStatus.ERROR).errorCause(errorCause).build();
+	}
+
+	static YubiVerifyResponse error(Throwable errorCause) {
+		// errors, like a class missing from the client's dependencies, are wrapped as the cause is an exception
+		return error(errorCause instanceof Exception ? (Exception) errorCause : new ExecutionException(errorCause));
+	}
+
 	static YubiVerifyResponse error(YubicoValidationFailure errorCause) {
 		return builder().verifyStatus(VerifyStatus.VALIDATION_ERROR).errorCause(errorCause).build();
 	}
 
-	static YubiVerifyResponse badOtp() {
-		return builder().verifyStatus(VerifyStatus.BAD_OTP).build();
+	static YubiVerifyResponse rejected(OtpPrecheck.Stage stage) {
+		VerifyStatus verifyStatus = stage == OtpPrecheck.Stage.RECENTLY_SEEN ? VerifyStatus.FAILED : VerifyStatus.BAD_OTP;
+		return builder().verifyStatus(verifyStatus).rejectedBy(stage).build();
 	}
 }
@@ -22,13 +22,34 @@
 
 package net.bluewizardhat.yubiauth;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.yubico.client.v2.ResponseStatus;
 import com.yubico.client.v2.VerificationResponse;
 import com.yubico.client.v2.YubicoClient;
 import com.yubico.client.v2.exceptions.YubicoValidationFailure;
 import com.yubico.client.v2.exceptions.YubicoVerificationException;
 
-import lombok.AllArgsConstructor;
 import lombok.NonNull;
 
 /**
@@ -37,35 +58,241 @@ import lombok.NonNull;
  * <p>The Yubico API documentation is somewhat vague and throws exceptions for some validations, this class
  * simplifies the API a little and gives nice status codes instead of Yubico's exceptions.
  *
+ * <p>Verifications run on a bounded executor so callers can use {@link #verifyOtpAsync(String)} instead of
+ * blocking a thread for the round trip to the Yubico servers. A verification that does not complete within the
+ * timeout, or that can not be queued because the executor is full, gives {@link YubiVerifyResponse.VerifyStatus#ERROR}.
+ *
+ * <p>Concurrent verifications of the same OTP (double clicks, client retries) are coalesced into a single request to
+ * the Yubico servers and all callers get the same response; only the first would succeed otherwise, the rest being
+ * replays. Completed FAILED responses are also remembered for a short while so a resubmission right after gets the
+ * same answer. OK responses are not, a verified OTP submitted again afterwards is rejected as recently seen.
+ *
+ * <p>Before anything is sent to the Yubico servers the OTP goes through an {@link OtpPrecheck}, which rejects malformed
+ * OTPs, OTPs from another Yubikey than the expected one and OTPs the servers have recently answered for.
+ *
  * @author bluewizardhat
  */
-@AllArgsConstructor
 public class Yubiauth {
-	@NonNull
-	private YubicoClient client;
+	public static final int DEFAULT_THREADS = 8;
+	public static final int DEFAULT_QUEUE_SIZE = 100;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+	public static final long DEFAULT_MEMO_MILLIS = 3000;
+	private static final int MEMO_MAX_SIZE = 10000;
+
+	private static class TimeoutSchedulerHolder {
+		private static final ScheduledExecutorService scheduler = newTimeoutScheduler();
+
+		private static ScheduledExecutorService newTimeoutScheduler() {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+					new ThreadFactoryBuilder().setNameFormat("yubiauth-timeout-%d").setDaemon(true).build());
+			scheduler.setRemoveOnCancelPolicy(true);
+			return scheduler;
+		}
+	}
+
+	private final YubicoClient client;
+	private final ListeningExecutorService executor;
+	private final long timeoutMillis;
+	private final ConcurrentMap<String, ListenableFuture<YubiVerifyResponse>> inFlight = new ConcurrentHashMap<>();
+	private final Cache<String, YubiVerifyResponse> recentResponses;
+	private final OtpPrecheck precheck;
 
 	/**
-	 * Verifies that an OTP is valid, recognized by yubico servers and is associated with the expected yubikey public id
+	 * Creates a Yubiauth with a default bounded executor and timeout
 	 */
-	public boolean verifyOtp(@NonNull String otp, @NonNull String yubicoPublicId) {
-		YubiVerifyResponse verifyResponse = verifyOtp(otp);
+	public Yubiauth(@NonNull YubicoClient client) {
+		this(client, newBoundedExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE), DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param client client to verify with
+	 * @param executor executor verifications run on, the caller is responsible for shutting it down
+	 * @param timeoutMillis time a verification may take before it is cancelled and reported as an error
+	 */
+	public Yubiauth(@NonNull YubicoClient client, @NonNull ExecutorService executor, long timeoutMillis) {
+		this(client, executor, timeoutMillis, DEFAULT_MEMO_MILLIS);
+	}
+
+	/**
+	 * @param client client to verify with
+	 * @param executor executor verifications run on, the caller is responsible for shutting it down
+	 * @param timeoutMillis time a verification may take before it is cancelled and reported as an error
+	 * @param memoMillis time a failed response is remembered and returned for the same OTP, 0 to disable
+	 */
+	public Yubiauth(@NonNull YubicoClient client, @NonNull ExecutorService executor, long timeoutMillis, long memoMillis) {
+		this(client, executor, timeoutMillis, memoMillis, new OtpPrecheck());
+	}
 
-		if (verifyResponse.getVerifyStatus() == YubiVerifyResponse.VerifyStatus.OK &&
-			yubicoPublicId.equals(verifyResponse.getYubicoResponse().getPublicId())) {
-				return true;
+	/**
+	 * @param client client to verify with
+	 * @param executor executor verifications run on, the caller is responsible for shutting it down
+	 * @param timeoutMillis time a verification may take before it is cancelled and reported as an error
+	 * @param memoMillis time a failed response is remembered and returned for the same OTP, 0 to disable
+	 * @param precheck checks run on OTPs before they are sent to the Yubico servers
+	 */
+	public Yubiauth(@NonNull YubicoClient client, @NonNull ExecutorService executor, long timeoutMillis, long memoMillis,
+			@NonNull OtpPrecheck precheck) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("timeoutMillis must be positive");
+		}
+		if (memoMillis < 0) {
+			throw new IllegalArgumentException("memoMillis must not be negative");
 		}
+		this.client = client;
+		this.executor = MoreExecutors.listeningDecorator(executor);
+		this.timeoutMillis = timeoutMillis;
+		this.recentResponses = CacheBuilder.newBuilder()
+				.maximumSize(MEMO_MAX_SIZE)
+				.expireAfterWrite(memoMillis, TimeUnit.MILLISECONDS)
+				.build();
+		this.precheck = precheck;
+	}
+
+	/**
+	 * The pre-check OTPs go through, for its rejection counters
+	 */
+	public OtpPrecheck getPrecheck() {
+		return precheck;
+	}
+
+	/**
+	 * Creates an executor with a fixed number of daemon threads and a bounded queue that rejects when full
+	 */
+	public static ExecutorService newBoundedExecutor(int threads, int queueSize) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactoryBuilder().setNameFormat("yubiauth-%d").setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
 
-		return false;
+	/**
+	 * Verifies that an OTP is valid, recognized by yubico servers and is associated with the expected yubikey public id
+	 */
+	public boolean verifyOtp(@NonNull String otp, @NonNull String yubicoPublicId) {
+		return Futures.getUnchecked(verifyOtpAsync(otp, yubicoPublicId));
 	}
 
 	/**
 	 * Verifies that an otp is valid and recognized by yubico servers.
 	 */
 	public YubiVerifyResponse verifyOtp(@NonNull String otp) {
-		if (!YubicoClient.isValidOTPFormat(otp)) {
-			return YubiVerifyResponse.badOtp();
+		return Futures.getUnchecked(verifyOtpAsync(otp));
+	}
+
+	/**
+	 * Asynchronous version of {@link #verifyOtp(String, String)}
+	 */
+	public ListenableFuture<Boolean> verifyOtpAsync(@NonNull String otp, @NonNull final String yubicoPublicId) {
+		if (precheck.checkFormat(otp, yubicoPublicId) != null) {
+			return Futures.immediateFuture(false);
+		}
+
+		return Futures.transform(verifyWellFormedOtp(otp), new Function<YubiVerifyResponse, Boolean>() {
+			@Override
+			public Boolean apply(YubiVerifyResponse verifyResponse) {
+				return verifyResponse.getVerifyStatus() == YubiVerifyResponse.VerifyStatus.OK &&
+					yubicoPublicId.equals(verifyResponse.getYubicoResponse().getPublicId());
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link #verifyOtp(String)}. The returned future never fails, errors and timeouts are
+	 * reported through the status of the response.
+	 */
+	public ListenableFuture<YubiVerifyResponse> verifyOtpAsync(@NonNull String otp) {
+		OtpPrecheck.Stage rejectedBy = precheck.checkFormat(otp);
+		if (rejectedBy != null) {
+			return Futures.immediateFuture(YubiVerifyResponse.rejected(rejectedBy));
+		}
+
+		return verifyWellFormedOtp(otp);
+	}
+
+	private ListenableFuture<YubiVerifyResponse> verifyWellFormedOtp(final String otp) {
+		YubiVerifyResponse recent = recentResponses.getIfPresent(otp);
+		if (recent != null) {
+			return Futures.immediateFuture(recent);
+		}
+
+		final SettableFuture<YubiVerifyResponse> promise = SettableFuture.create();
+		ListenableFuture<YubiVerifyResponse> existing = inFlight.putIfAbsent(otp, promise);
+		if (existing != null) {
+			return Futures.nonCancellationPropagating(existing);
+		}
+
+		// the previous request for this otp may have completed between the memo lookup and putIfAbsent
+		recent = recentResponses.getIfPresent(otp);
+		if (recent != null) {
+			promise.set(recent);
+		} else if (precheck.checkRecentlySeen(otp) != null) {
+			promise.set(YubiVerifyResponse.rejected(OtpPrecheck.Stage.RECENTLY_SEEN));
+		} else {
+			promise.setFuture(startVerify(otp));
+		}
+		// a callback rather than a listener calling get(), which would throw out of the listener if the promise failed
+		Futures.addCallback(promise, new FutureCallback<YubiVerifyResponse>() {
+			@Override
+			public void onSuccess(YubiVerifyResponse response) {
+				try {
+					// OK is not remembered, a resubmission of a verified otp must not verify again
+					if (response.getVerifyStatus() == YubiVerifyResponse.VerifyStatus.FAILED) {
+						recentResponses.put(otp, response);
+					}
+					if (isConclusive(response)) {
+						precheck.markSeen(otp);
+					}
+				} finally {
+					inFlight.remove(otp, promise);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				inFlight.remove(otp, promise);
+			}
+		}, MoreExecutors.directExecutor());
+
+		return Futures.nonCancellationPropagating(promise);
+	}
+
+	private ListenableFuture<YubiVerifyResponse> startVerify(final String otp) {
+		ListenableFuture<YubiVerifyResponse> future;
+		try {
+			future = executor.submit(new Callable<YubiVerifyResponse>() {
+				@Override
+				public YubiVerifyResponse call() {
+					return verify(otp);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return Futures.immediateFuture(YubiVerifyResponse.error(e));
 		}
 
+		future = Futures.withTimeout(future, timeoutMillis, TimeUnit.MILLISECONDS, TimeoutSchedulerHolder.scheduler);
+		// timeouts and anything verify() let through, like the verification being interrupted or an Error thrown by
+		// the client, become errors
+		return Futures.catching(future, Throwable.class, new Function<Throwable, YubiVerifyResponse>() {
+			@Override
+			public YubiVerifyResponse apply(Throwable t) {
+				return YubiVerifyResponse.error(t);
+			}
+		});
+	}
+
+	/**
+	 * True if the Yubico servers have answered in a way that means the otp can never verify again
+	 */
+	private static boolean isConclusive(YubiVerifyResponse response) {
+		if (response.getYubicoResponse() == null) {
+			return false;
+		}
+		ResponseStatus status = response.getYubicoResponse().getStatus();
+		return status == ResponseStatus.OK || status == ResponseStatus.REPLAYED_OTP || status == ResponseStatus.BAD_OTP;
+	}
+
+	private YubiVerifyResponse verify(String otp) {
 		try {
 			VerificationResponse response = client.verify(otp);
 			if (response.getStatus() == ResponseStatus.OK) {
@@ -76,6 +303,9 @@ public class Yubiauth {
 			return YubiVerifyResponse.error(e);
 		} catch (YubicoVerificationException e) {
 			return YubiVerifyResponse.error(e);
+		} catch (RuntimeException e) {
+			// a bug or unexpected failure in the client, still reported as an error rather than failing the future
+			return YubiVerifyResponse.error(e);
 		}
 	}
 }
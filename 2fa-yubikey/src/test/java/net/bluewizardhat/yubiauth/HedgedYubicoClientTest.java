@@ -0,0 +1,196 @@
+package net.bluewizardhat.yubiauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+import com.yubico.client.v2.exceptions.YubicoVerificationException;
+
+public class HedgedYubicoClientTest {
+	private static final String OTP = "ccccccbchvthlivuitriujjifivbvtrjkjfirllluurj";
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void verify_fastServerNoHedge() throws Exception {
+		VerificationResponse ok = response(ResponseStatus.OK);
+		YubicoClient a = server("https://a/verify", ok, 0);
+		YubicoClient b = server("https://b/verify", response(ResponseStatus.OK), 0);
+
+		HedgedYubicoClient client = new HedgedYubicoClient(Arrays.asList(a, b), executor, 200, 10, 1000, 3, 30000);
+		assertSame(ok, client.verify(OTP));
+
+		List<ServerStats> stats = client.getServerStats();
+		assertEquals("https://a/verify", stats.get(0).getUrl());
+		assertEquals(1, stats.get(0).getRequests());
+		assertEquals(0, stats.get(1).getRequests());
+		assertTrue(stats.get(0).getP95Millis() >= 0);
+		assertEquals(-1, stats.get(1).getP95Millis());
+	}
+
+	@Test
+	public void verify_slowServerIsHedged() throws Exception {
+		YubicoClient a = server("https://a/verify", response(ResponseStatus.OK), 1000);
+		VerificationResponse ok = response(ResponseStatus.OK);
+		YubicoClient b = server("https://b/verify", ok, 0);
+
+		HedgedYubicoClient client = new HedgedYubicoClient(Arrays.asList(a, b), executor, 50, 10, 1000, 3, 30000);
+		long start = System.currentTimeMillis();
+		assertSame(ok, client.verify(OTP));
+		assertTrue(System.currentTimeMillis() - start < 500);
+
+		List<ServerStats> stats = client.getServerStats();
+		assertEquals(1, stats.get(0).getRequests());
+		assertEquals(1, stats.get(1).getRequests());
+		assertEquals(1, stats.get(1).getHedges());
+	}
+
+	@Test
+	public void verify_failingServerFailsOverAndIsDemoted() throws Exception {
+		YubicoClient a = failingServer("https://a/verify");
+		VerificationResponse ok = response(ResponseStatus.OK);
+		YubicoClient b = server("https://b/verify", ok, 0);
+
+		HedgedYubicoClient client = new HedgedYubicoClient(Arrays.asList(a, b), executor, 5000, 10, 5000, 2, 30000);
+		for (int i = 0; i < 4; i++) {
+			long start = System.currentTimeMillis();
+			assertSame(ok, client.verify(OTP));
+			assertTrue(System.currentTimeMillis() - start < 1000);
+		}
+
+		List<ServerStats> stats = client.getServerStats();
+		assertEquals(1, stats.get(0).getRequests());
+		assertEquals(1, stats.get(0).getFailures());
+		assertEquals(4, stats.get(1).getRequests());
+	}
+
+	@Test
+	public void verify_circuitOpensAfterConsecutiveFailures() throws Exception {
+		YubicoClient a = failingServer("https://a/verify");
+		YubicoClient b = failingServer("https://b/verify");
+
+		HedgedYubicoClient client = new HedgedYubicoClient(Arrays.asList(a, b), executor, 5000, 10, 5000, 2, 30000);
+		for (int i = 0; i < 3; i++) {
+			try {
+				client.verify(OTP);
+				fail();
+			} catch (YubicoVerificationException e) {
+				// expected
+			}
+		}
+
+		List<ServerStats> stats = client.getServerStats();
+		assertTrue(stats.get(0).isCircuitOpen());
+		assertTrue(stats.get(1).isCircuitOpen());
+		// with all circuits open the last server is still tried
+		assertEquals(2, stats.get(0).getRequests());
+		assertEquals(3, stats.get(1).getRequests());
+	}
+
+	@Test
+	public void verify_replayWhileOtherOutstandingIsInconclusive() throws Exception {
+		VerificationResponse ok = response(ResponseStatus.OK);
+		YubicoClient a = server("https://a/verify", ok, 200);
+		YubicoClient b = server("https://b/verify", response(ResponseStatus.REPLAYED_OTP), 0);
+
+		HedgedYubicoClient client = new HedgedYubicoClient(Arrays.asList(a, b), executor, 20, 10, 1000, 3, 30000);
+		assertSame(ok, client.verify(OTP));
+	}
+
+	@Test
+	public void verify_lostHedgeIsNotAFailure() throws Exception {
+		YubicoClient a = interruptWrappingServer("https://a/verify", 1000);
+		VerificationResponse ok = response(ResponseStatus.OK);
+		YubicoClient b = server("https://b/verify", ok, 0);
+
+		// a keeps its place as it has no latency statistics, so it is tried and loses every time
+		HedgedYubicoClient client = new HedgedYubicoClient(Arrays.asList(a, b), executor, 20, 10, 1000, 2, 30000);
+		for (int i = 0; i < 4; i++) {
+			assertSame(ok, client.verify(OTP));
+		}
+		// give the cancelled attempts time to finish
+		Thread.sleep(100);
+
+		List<ServerStats> stats = client.getServerStats();
+		assertEquals("https://a/verify", stats.get(0).getUrl());
+		assertEquals(4, stats.get(0).getRequests());
+		assertEquals(0, stats.get(0).getFailures());
+		assertFalse(stats.get(0).isCircuitOpen());
+		assertEquals(-1, stats.get(0).getP95Millis());
+	}
+
+	@Test(expected = YubicoVerificationException.class)
+	public void verify_allServersFail() throws Exception {
+		new HedgedYubicoClient(Arrays.asList(failingServer("https://a/verify")), executor).verify(OTP);
+	}
+
+	private static YubicoClient failingServer(String url) throws Exception {
+		YubicoClient client = mock(YubicoClient.class);
+		when(client.getWsapiUrls()).thenReturn(new String[] { url });
+		when(client.verify(anyString())).thenThrow(new YubicoVerificationException("connection refused"));
+		return client;
+	}
+
+	/**
+	 * Like the stock client, which turns an interrupt while waiting for the server into a YubicoVerificationException
+	 */
+	private static YubicoClient interruptWrappingServer(String url, final long latencyMillis) throws Exception {
+		final VerificationResponse response = response(ResponseStatus.OK);
+		YubicoClient client = mock(YubicoClient.class);
+		when(client.getWsapiUrls()).thenReturn(new String[] { url });
+		when(client.verify(anyString())).thenAnswer(new Answer<VerificationResponse>() {
+			@Override
+			public VerificationResponse answer(InvocationOnMock invocation) throws YubicoVerificationException {
+				try {
+					Thread.sleep(latencyMillis);
+				} catch (InterruptedException e) {
+					throw new YubicoVerificationException("Validation interrupted.", e);
+				}
+				return response;
+			}
+		});
+		return client;
+	}
+
+	private static YubicoClient server(String url, final VerificationResponse response, final long latencyMillis) throws Exception {
+		YubicoClient client = mock(YubicoClient.class);
+		when(client.getWsapiUrls()).thenReturn(new String[] { url });
+		when(client.verify(anyString())).thenAnswer(new Answer<VerificationResponse>() {
+			@Override
+			public VerificationResponse answer(InvocationOnMock invocation) throws InterruptedException {
+				Thread.sleep(latencyMillis);
+				return response;
+			}
+		});
+		return client;
+	}
+
+	private static VerificationResponse response(ResponseStatus status) {
+		VerificationResponse response = mock(VerificationResponse.class);
+		when(response.getStatus()).thenReturn(status);
+		return response;
+	}
+}
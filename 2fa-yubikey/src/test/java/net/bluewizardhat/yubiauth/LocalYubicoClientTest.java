@@ -0,0 +1,210 @@
+package net.bluewizardhat.yubiauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.bluewizardhat.yubiauth.YubiVerifyResponse.VerifyStatus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.BaseEncoding;
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+
+public class LocalYubicoClientTest {
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+	private static final String PUBLIC_ID = "vvccccfibgeh";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final SecureRandom random = new SecureRandom();
+	private final byte[] privateId = randomBytes(6);
+	private final byte[] aesKey = randomBytes(16);
+
+	@Test
+	public void verify_yubicoTestVector() throws Exception {
+		// decrypts to 8792ebfe26cc 1300 30c200 11 c89f 23c8
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey("dteffuje", HEX.decode("8792ebfe26cc"), HEX.decode("ecde18dbe76fbd0c33330f1c354871db"));
+
+		VerificationResponse response = client.verify("dteffujehknhfjbrjnlnldnhcujvddbikngjrtgh");
+		assertEquals(ResponseStatus.OK, response.getStatus());
+		assertEquals("19", response.getSessioncounter());
+		assertEquals("17", response.getSessionuse());
+		assertEquals("49712", response.getTimestamp());
+		assertEquals("dteffuje", response.getPublicId());
+	}
+
+	@Test
+	public void verify_generatedKey() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+
+		assertEquals(ResponseStatus.OK, client.verify(otp(privateId, aesKey, 1, 0)).getStatus());
+		assertEquals(ResponseStatus.OK, client.verify(otp(privateId, aesKey, 1, 1)).getStatus());
+		assertEquals(ResponseStatus.OK, client.verify(otp(privateId, aesKey, 2, 0)).getStatus());
+	}
+
+	@Test
+	public void verify_replayAndOldCountersRejected() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+
+		String otp = otp(privateId, aesKey, 5, 3);
+		assertEquals(ResponseStatus.OK, client.verify(otp).getStatus());
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(otp).getStatus());
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(otp(privateId, aesKey, 5, 2)).getStatus());
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(otp(privateId, aesKey, 4, 200)).getStatus());
+	}
+
+	@Test
+	public void verify_restoredCounters() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey, 5, 3);
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(otp(privateId, aesKey, 5, 3)).getStatus());
+		assertEquals(ResponseStatus.OK, client.verify(otp(privateId, aesKey, 5, 4)).getStatus());
+	}
+
+	@Test
+	public void verify_usageCounterFlagIgnored() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+
+		VerificationResponse response = client.verify(otp(privateId, aesKey, 0x8000 | 5, 0));
+		assertEquals(ResponseStatus.OK, response.getStatus());
+		assertEquals("5", response.getSessioncounter());
+		// an OTP without the flag is not mistaken for a replay
+		assertEquals(ResponseStatus.OK, client.verify(otp(privateId, aesKey, 6, 0)).getStatus());
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(otp(privateId, aesKey, 0x8000 | 5, 1)).getStatus());
+	}
+
+	@Test
+	public void verify_countersSurviveRestart() throws Exception {
+		File file = temporaryFolder.newFile("counters");
+		String otp = otp(privateId, aesKey, 5, 3);
+
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+		client.setCounterStore(new FileCounterStore(file.toPath()));
+		assertEquals(ResponseStatus.OK, client.verify(otp).getStatus());
+
+		// a new client for the same keys, as after a restart
+		LocalYubicoClient restarted = new LocalYubicoClient();
+		restarted.addKey(PUBLIC_ID, privateId, aesKey);
+		FileCounterStore store = new FileCounterStore(file.toPath());
+		assertEquals(1, store.restore(restarted));
+		restarted.setCounterStore(store);
+
+		assertEquals(ResponseStatus.REPLAYED_OTP, restarted.verify(otp).getStatus());
+		assertEquals(ResponseStatus.OK, restarted.verify(otp(privateId, aesKey, 5, 4)).getStatus());
+		assertEquals(ResponseStatus.REPLAYED_OTP, restarted.verify(otp(privateId, aesKey, 5, 4)).getStatus());
+	}
+
+	@Test
+	public void verify_failedCounterStoreRejects() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+		client.setCounterStore(new LocalYubicoClient.CounterStore() {
+			@Override
+			public void save(String publicId, int useCounter, int sessionCounter) throws IOException {
+				throw new IOException("disk full");
+			}
+		});
+
+		assertEquals(ResponseStatus.BACKEND_ERROR, client.verify(otp(privateId, aesKey, 1, 0)).getStatus());
+	}
+
+	@Test
+	public void verify_badOtps() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+
+		// wrong key, wrong private id, unknown public id, tampered token, not modhex
+		assertEquals(ResponseStatus.BAD_OTP, client.verify(otp(privateId, randomBytes(16), 1, 0)).getStatus());
+		assertEquals(ResponseStatus.BAD_OTP, client.verify(otp(randomBytes(6), aesKey, 1, 0)).getStatus());
+		assertEquals(ResponseStatus.BAD_OTP, client.verify("vvccccfibgei" + otp(privateId, aesKey, 1, 0).substring(12)).getStatus());
+		String otp = otp(privateId, aesKey, 1, 0);
+		String tampered = otp.substring(0, 20) + (otp.charAt(20) == 'c' ? 'b' : 'c') + otp.substring(21);
+		assertEquals(ResponseStatus.BAD_OTP, client.verify(tampered).getStatus());
+		assertEquals(ResponseStatus.BAD_OTP, client.verify(otp.replace('c', 'a')).getStatus());
+		// none of the bad otps advanced the counters
+		assertEquals(ResponseStatus.OK, client.verify(otp).getStatus());
+	}
+
+	@Test
+	public void loadKeys() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		String keys = "# publicId,privateId,aesKey\n\n" + PUBLIC_ID + "," + HEX.encode(privateId) + ", " + HEX.encode(aesKey).toUpperCase() + "\n";
+		assertEquals(1, client.loadKeys(new BufferedReader(new StringReader(keys))));
+		assertEquals(ResponseStatus.OK, client.verify(otp(privateId, aesKey, 1, 0)).getStatus());
+	}
+
+	@Test
+	public void yubiauth_withLocalClient() throws Exception {
+		LocalYubicoClient client = new LocalYubicoClient();
+		client.addKey(PUBLIC_ID, privateId, aesKey);
+
+		ExecutorService executor = Yubiauth.newBoundedExecutor(1, 1);
+		try {
+			Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+			String otp = otp(privateId, aesKey, 1, 0);
+			assertTrue(yubiauth.verifyOtp(otp, PUBLIC_ID));
+			assertEquals(VerifyStatus.FAILED, yubiauth.verifyOtp(otp).getVerifyStatus());
+			assertFalse(yubiauth.verifyOtp(otp(privateId, aesKey, 2, 0), "vvccccfibgei"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void modHex() {
+		byte[] bytes = randomBytes(16);
+		assertTrue(Arrays.equals(bytes, ModHex.decode(ModHex.encode(bytes))));
+		assertEquals("cbdefghijklnrtuv", ModHex.encode(HEX.decode("0123456789abcdef")));
+		assertFalse(ModHex.isModHex("cbd"));
+		assertFalse(ModHex.isModHex("cbda"));
+		assertFalse(ModHex.isModHex("CBDE"));
+		assertFalse(ModHex.isModHex(""));
+	}
+
+	private String otp(byte[] privateId, byte[] aesKey, int useCounter, int sessionCounter) throws Exception {
+		byte[] token = new byte[16];
+		System.arraycopy(privateId, 0, token, 0, 6);
+		token[6] = (byte) useCounter;
+		token[7] = (byte) (useCounter >> 8);
+		token[8] = (byte) random.nextInt();
+		token[9] = (byte) random.nextInt();
+		token[10] = (byte) random.nextInt();
+		token[11] = (byte) sessionCounter;
+		token[12] = (byte) random.nextInt();
+		token[13] = (byte) random.nextInt();
+		int crc = ~LocalYubicoClient.crc16(Arrays.copyOf(token, 14)) & 0xffff;
+		token[14] = (byte) crc;
+		token[15] = (byte) (crc >> 8);
+
+		Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(aesKey, "AES"));
+		return PUBLIC_ID + ModHex.encode(cipher.doFinal(token));
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
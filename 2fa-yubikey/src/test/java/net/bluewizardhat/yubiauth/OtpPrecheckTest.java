@@ -0,0 +1,59 @@
+package net.bluewizardhat.yubiauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.bluewizardhat.yubiauth.OtpPrecheck.Stage;
+
+import org.junit.Test;
+
+public class OtpPrecheckTest {
+	private static final String PUBLIC_ID = "ccccccbchvth";
+	private static final String OTP = PUBLIC_ID + "livuitriujjifivbvtrjkjfirllluurj";
+
+	@Test
+	public void checkFormat() {
+		OtpPrecheck precheck = new OtpPrecheck();
+		assertNull(precheck.checkFormat(OTP));
+		assertNull(precheck.checkFormat(OTP.substring(12)));
+		assertEquals(Stage.MODHEX, precheck.checkFormat(OTP.replace('c', 'a')));
+		assertEquals(Stage.MODHEX, precheck.checkFormat(OTP.substring(1)));
+		assertEquals(Stage.MODHEX, precheck.checkFormat(""));
+		assertEquals(Stage.LENGTH, precheck.checkFormat(OTP.substring(14)));
+		assertEquals(Stage.LENGTH, precheck.checkFormat("cccccc" + OTP + "cc"));
+	}
+
+	@Test
+	public void checkFormat_publicId() {
+		OtpPrecheck precheck = new OtpPrecheck();
+		assertNull(precheck.checkFormat(OTP, PUBLIC_ID));
+		assertEquals(Stage.PUBLIC_ID, precheck.checkFormat(OTP, "ccccccbchvti"));
+		assertEquals(Stage.PUBLIC_ID, precheck.checkFormat(OTP + "cc", PUBLIC_ID));
+		assertEquals(Stage.PUBLIC_ID, precheck.checkFormat(OTP, "ccccccbchv"));
+		assertEquals(Stage.MODHEX, precheck.checkFormat(OTP.toUpperCase(), PUBLIC_ID));
+	}
+
+	@Test
+	public void checkRecentlySeen() {
+		OtpPrecheck precheck = new OtpPrecheck(1, 60000);
+		assertNull(precheck.checkRecentlySeen(OTP));
+		precheck.markSeen(OTP);
+		assertEquals(Stage.RECENTLY_SEEN, precheck.checkRecentlySeen(OTP));
+		// bounded, the oldest is evicted
+		precheck.markSeen(OTP.replace('j', 'k'));
+		assertNull(precheck.checkRecentlySeen(OTP));
+	}
+
+	@Test
+	public void rejectionCounters() {
+		OtpPrecheck precheck = new OtpPrecheck();
+		precheck.checkFormat("xx");
+		precheck.checkFormat("xx");
+		precheck.checkFormat("cc");
+		precheck.checkFormat(OTP, "cccccccccccc");
+		assertEquals(Long.valueOf(2), precheck.getRejections().get(Stage.MODHEX));
+		assertEquals(Long.valueOf(1), precheck.getRejections().get(Stage.LENGTH));
+		assertEquals(Long.valueOf(1), precheck.getRejections().get(Stage.PUBLIC_ID));
+		assertEquals(Long.valueOf(0), precheck.getRejections().get(Stage.RECENTLY_SEEN));
+	}
+}
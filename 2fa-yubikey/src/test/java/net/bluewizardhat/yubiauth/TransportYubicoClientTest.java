@@ -0,0 +1,154 @@
+package net.bluewizardhat.yubiauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.bluewizardhat.yubiauth.stub.YubiCloudStubServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+import com.yubico.client.v2.exceptions.YubicoVerificationException;
+
+public class TransportYubicoClientTest {
+	private static final int CLIENT_ID = 4711;
+	private static final String API_KEY = "c2VjcmV0IGFwaSBrZXkgZm9yIHRlc3Q=";
+	private static final String OTP = "ccccccbchvthlivuitriujjifivbvtrjkjfirllluurj";
+
+	private YubiCloudStubServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new YubiCloudStubServer(0);
+		server.addClient(CLIENT_ID, API_KEY);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void verify_reusesConnections() throws Exception {
+		YubicoClient client = client(new PooledHttpTransport());
+
+		VerificationResponse response = client.verify(OTP);
+		assertEquals(ResponseStatus.OK, response.getStatus());
+		assertEquals("ccccccbchvth", response.getPublicId());
+		assertEquals(ResponseStatus.REPLAYED_OTP, client.verify(OTP).getStatus());
+		for (char c : "bdefgh".toCharArray()) {
+			assertEquals(ResponseStatus.OK, client.verify(OTP.replace('j', c)).getStatus());
+		}
+
+		assertEquals(8, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void verify_errorResponsesAlsoReuseConnections() throws Exception {
+		YubicoClient client = client(new PooledHttpTransport());
+		server.setHttpErrorRate(1.0);
+		for (int i = 0; i < 3; i++) {
+			try {
+				client.verify(OTP);
+				fail();
+			} catch (YubicoVerificationException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		}
+		server.setHttpErrorRate(0);
+		assertEquals(ResponseStatus.OK, client.verify(OTP).getStatus());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void verify_wrongApiKey() throws Exception {
+		YubicoClient client = new TransportYubicoClient(CLIENT_ID, "d3JvbmcgYXBpIGtleQ==", new PooledHttpTransport());
+		client.setWsapiUrls(new String[] { server.getVerifyUrl() });
+		assertEquals(ResponseStatus.BAD_SIGNATURE, client.verify(OTP).getStatus());
+	}
+
+	@Test(expected = YubicoVerificationException.class)
+	public void verify_readTimeout() throws Exception {
+		server.setLatencyMillis(500);
+		client(new PooledHttpTransport(1000, 100, 10)).verify(OTP);
+	}
+
+	@Test
+	public void verify_failsOverToNextUrl() throws Exception {
+		YubicoClient client = new TransportYubicoClient(CLIENT_ID, API_KEY, new PooledHttpTransport(100, 100, 10));
+		client.setWsapiUrls(new String[] { "http://localhost:1/wsapi/2.0/verify", server.getVerifyUrl() });
+		assertEquals(ResponseStatus.OK, client.verify(OTP).getStatus());
+	}
+
+	@Test
+	public void verify_maxConnectionsPerHost() throws Exception {
+		server.setLatencyMillis(300);
+		final YubicoClient client = client(new PooledHttpTransport(100, 1000, 1));
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<VerificationResponse>> futures = new ArrayList<>();
+			for (final char c : "bd".toCharArray()) {
+				futures.add(executor.submit(new Callable<VerificationResponse>() {
+					@Override
+					public VerificationResponse call() throws Exception {
+						return client.verify(OTP.replace('j', c));
+					}
+				}));
+			}
+			int failures = 0;
+			for (Future<VerificationResponse> future : futures) {
+				try {
+					future.get();
+				} catch (Exception e) {
+					failures++;
+				}
+			}
+			// the second request could not get a connection within the connect timeout
+			assertEquals(1, failures);
+			assertEquals(1, server.getRequestCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void keepAliveConnectionsPerHost_followsSystemProperty() {
+		String previous = System.getProperty("http.maxConnections");
+		try {
+			System.clearProperty("http.maxConnections");
+			assertEquals(5, PooledHttpTransport.keepAliveConnectionsPerHost());
+			assertEquals(5, new PooledHttpTransport().getMaxConnectionsPerHost());
+			System.setProperty("http.maxConnections", "0");
+			assertEquals(5, PooledHttpTransport.keepAliveConnectionsPerHost());
+			System.setProperty("http.maxConnections", "20");
+			assertEquals(20, PooledHttpTransport.keepAliveConnectionsPerHost());
+		} finally {
+			if (previous == null) {
+				System.clearProperty("http.maxConnections");
+			} else {
+				System.setProperty("http.maxConnections", previous);
+			}
+		}
+	}
+
+	private YubicoClient client(YubicoTransport transport) {
+		YubicoClient client = new TransportYubicoClient(CLIENT_ID, API_KEY, transport);
+		client.setWsapiUrls(new String[] { server.getVerifyUrl() });
+		return client;
+	}
+}
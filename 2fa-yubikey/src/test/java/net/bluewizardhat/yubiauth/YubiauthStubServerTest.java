@@ -0,0 +1,63 @@
+package net.bluewizardhat.yubiauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+
+import net.bluewizardhat.yubiauth.YubiVerifyResponse.VerifyStatus;
+import net.bluewizardhat.yubiauth.stub.YubiCloudStubServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class YubiauthStubServerTest {
+	private static final int CLIENT_ID = 4711;
+	private static final String API_KEY = "c2VjcmV0IGFwaSBrZXkgZm9yIHRlc3Q=";
+	private static final String OTP = "ccccccbchvthlivuitriujjifivbvtrjkjfirllluurj";
+
+	private YubiCloudStubServer failing;
+	private YubiCloudStubServer working;
+	private ExecutorService executor;
+	private ExecutorService serverExecutor;
+
+	@Before
+	public void setUp() throws Exception {
+		failing = new YubiCloudStubServer(0);
+		failing.addClient(CLIENT_ID, API_KEY);
+		failing.setHttpErrorRate(1.0);
+		working = new YubiCloudStubServer(0);
+		working.addClient(CLIENT_ID, API_KEY);
+		executor = Yubiauth.newBoundedExecutor(4, 10);
+		serverExecutor = Yubiauth.newBoundedExecutor(8, 10);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		serverExecutor.shutdownNow();
+		failing.close();
+		working.close();
+	}
+
+	@Test
+	public void verifyOtp_failsOverToWorkingServer() {
+		HedgedYubicoClient client = HedgedYubicoClient.create(CLIENT_ID, API_KEY,
+				new String[] { failing.getVerifyUrl(), working.getVerifyUrl() }, serverExecutor);
+		Yubiauth yubiauth = new Yubiauth(client, executor, 5000, 0);
+
+		assertTrue(yubiauth.verifyOtp(OTP, "ccccccbchvth"));
+		assertEquals(VerifyStatus.FAILED, yubiauth.verifyOtp(OTP).getVerifyStatus());
+		assertEquals(1, client.getServerStats().get(0).getFailures());
+	}
+
+	@Test
+	public void verifyOtp_slowServerTimesOut() {
+		working.setLatencyMillis(500);
+		HedgedYubicoClient client = HedgedYubicoClient.create(CLIENT_ID, API_KEY, new String[] { working.getVerifyUrl() }, serverExecutor);
+		Yubiauth yubiauth = new Yubiauth(client, executor, 100, 0);
+
+		assertEquals(VerifyStatus.ERROR, yubiauth.verifyOtp(OTP).getVerifyStatus());
+	}
+}
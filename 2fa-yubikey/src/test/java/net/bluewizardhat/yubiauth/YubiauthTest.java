@@ -0,0 +1,234 @@
+package net.bluewizardhat.yubiauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.bluewizardhat.yubiauth.YubiVerifyResponse.VerifyStatus;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.yubico.client.v2.ResponseStatus;
+import com.yubico.client.v2.VerificationResponse;
+import com.yubico.client.v2.YubicoClient;
+
+public class YubiauthTest {
+	private static final String OTP = "ccccccbchvthlivuitriujjifivbvtrjkjfirllluurj";
+	private static final String PUBLIC_ID = "ccccccbchvth";
+
+	private final YubicoClient client = mock(YubicoClient.class);
+	private final ExecutorService executor = Yubiauth.newBoundedExecutor(1, 1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void verifyOtpAsync_ok() throws Exception {
+		VerificationResponse response = response(ResponseStatus.OK);
+		when(client.verify(OTP)).thenReturn(response);
+
+		YubiVerifyResponse verifyResponse = new Yubiauth(client, executor, 1000).verifyOtpAsync(OTP).get();
+		assertEquals(VerifyStatus.OK, verifyResponse.getVerifyStatus());
+		assertTrue(new Yubiauth(client, executor, 1000).verifyOtpAsync(OTP, PUBLIC_ID).get());
+		assertFalse(new Yubiauth(client, executor, 1000).verifyOtpAsync(OTP, "cccccccccccc").get());
+		assertTrue(new Yubiauth(client, executor, 1000).verifyOtp(OTP, PUBLIC_ID));
+	}
+
+	@Test
+	public void verifyOtpAsync_okNotRememberedForResubmission() throws Exception {
+		VerificationResponse response = response(ResponseStatus.OK);
+		when(client.verify(OTP)).thenReturn(response);
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 1000);
+		assertEquals(VerifyStatus.OK, yubiauth.verifyOtp(OTP).getVerifyStatus());
+		YubiVerifyResponse verifyResponse = yubiauth.verifyOtp(OTP);
+		assertEquals(VerifyStatus.FAILED, verifyResponse.getVerifyStatus());
+		assertEquals(OtpPrecheck.Stage.RECENTLY_SEEN, verifyResponse.getRejectedBy());
+		verify(client, times(1)).verify(OTP);
+	}
+
+	@Test
+	public void verifyOtpAsync_replayedFails() throws Exception {
+		VerificationResponse response = response(ResponseStatus.REPLAYED_OTP);
+		when(client.verify(OTP)).thenReturn(response);
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000);
+		assertEquals(VerifyStatus.FAILED, yubiauth.verifyOtp(OTP).getVerifyStatus());
+	}
+
+	@Test
+	public void verifyOtpAsync_badOtp() throws Exception {
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000);
+		assertEquals(VerifyStatus.BAD_OTP, yubiauth.verifyOtpAsync("not an otp").get().getVerifyStatus());
+	}
+
+	@Test
+	public void verifyOtpAsync_timeout() throws Exception {
+		when(client.verify(anyString())).thenAnswer(blockUntilReleased());
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 50);
+		YubiVerifyResponse verifyResponse = yubiauth.verifyOtp(OTP);
+		assertEquals(VerifyStatus.ERROR, verifyResponse.getVerifyStatus());
+		assertTrue(verifyResponse.getErrorCause() instanceof TimeoutException);
+	}
+
+	@Test
+	public void verifyOtpAsync_clientExceptionIsError() throws Exception {
+		IllegalStateException failure = new IllegalStateException("broken client");
+		when(client.verify(OTP)).thenThrow(failure);
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+		YubiVerifyResponse verifyResponse = yubiauth.verifyOtpAsync(OTP).get();
+		assertEquals(VerifyStatus.ERROR, verifyResponse.getVerifyStatus());
+		assertEquals(failure, verifyResponse.getErrorCause());
+		assertFalse(yubiauth.verifyOtp(OTP, PUBLIC_ID));
+	}
+
+	@Test
+	public void verifyOtpAsync_clientErrorIsError() throws Exception {
+		NoClassDefFoundError failure = new NoClassDefFoundError("javax/xml/bind/DatatypeConverter");
+		when(client.verify(OTP)).thenThrow(failure);
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+		YubiVerifyResponse verifyResponse = yubiauth.verifyOtpAsync(OTP).get(1, TimeUnit.SECONDS);
+		assertEquals(VerifyStatus.ERROR, verifyResponse.getVerifyStatus());
+		assertEquals(failure, verifyResponse.getErrorCause().getCause());
+		assertFalse(yubiauth.verifyOtp(OTP, PUBLIC_ID));
+
+		// completed before verifyOtpAsync returns
+		Yubiauth direct = new Yubiauth(client, MoreExecutors.newDirectExecutorService(), 1000, 0);
+		assertEquals(VerifyStatus.ERROR, direct.verifyOtpAsync(OTP).get(1, TimeUnit.SECONDS).getVerifyStatus());
+		assertEquals(VerifyStatus.ERROR, direct.verifyOtp(OTP).getVerifyStatus());
+	}
+
+	@Test
+	public void verifyOtpAsync_interruptedIsError() throws Exception {
+		when(client.verify(anyString())).thenAnswer(blockUntilReleased());
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+		Future<YubiVerifyResponse> future = yubiauth.verifyOtpAsync(OTP);
+		Thread.sleep(50);
+		executor.shutdownNow();
+		assertEquals(VerifyStatus.ERROR, future.get().getVerifyStatus());
+	}
+
+	@Test
+	public void verifyOtpAsync_rejectedWhenFull() throws Exception {
+		when(client.verify(anyString())).thenAnswer(blockUntilReleased());
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 5000);
+		yubiauth.verifyOtpAsync(OTP.replace('j', 'b'));
+		yubiauth.verifyOtpAsync(OTP.replace('j', 'c'));
+		YubiVerifyResponse verifyResponse = yubiauth.verifyOtpAsync(OTP.replace('j', 'd')).get();
+		assertEquals(VerifyStatus.ERROR, verifyResponse.getVerifyStatus());
+		assertTrue(verifyResponse.getErrorCause() instanceof RejectedExecutionException);
+	}
+
+	@Test
+	public void verifyOtpAsync_concurrentCallsShareOneRequest() throws Exception {
+		when(client.verify(anyString())).thenAnswer(blockUntilReleased());
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 5000, 1000);
+		Future<YubiVerifyResponse> first = yubiauth.verifyOtpAsync(OTP);
+		Future<YubiVerifyResponse> second = yubiauth.verifyOtpAsync(OTP);
+		Future<YubiVerifyResponse> third = yubiauth.verifyOtpAsync(OTP);
+		release.countDown();
+
+		assertEquals(VerifyStatus.OK, first.get().getVerifyStatus());
+		assertEquals(VerifyStatus.OK, second.get().getVerifyStatus());
+		assertEquals(VerifyStatus.OK, third.get().getVerifyStatus());
+		// a resubmission after completion is a replay
+		assertEquals(VerifyStatus.FAILED, yubiauth.verifyOtp(OTP).getVerifyStatus());
+		verify(client, times(1)).verify(OTP);
+	}
+
+	@Test
+	public void verifyOtpAsync_errorsAreNotRemembered() throws Exception {
+		when(client.verify(anyString())).thenAnswer(blockUntilReleased());
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 50, 1000);
+		assertEquals(VerifyStatus.ERROR, yubiauth.verifyOtp(OTP).getVerifyStatus());
+		release.countDown();
+		assertEquals(VerifyStatus.OK, yubiauth.verifyOtp(OTP).getVerifyStatus());
+	}
+
+	@Test
+	public void verifyOtpAsync_memoExpires() throws Exception {
+		// a backend error is not conclusive so the otp is not rejected as recently seen either
+		VerificationResponse response = response(ResponseStatus.BACKEND_ERROR);
+		when(client.verify(OTP)).thenReturn(response);
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+		yubiauth.verifyOtp(OTP);
+		yubiauth.verifyOtp(OTP);
+		verify(client, times(2)).verify(OTP);
+	}
+
+	@Test
+	public void verifyOtpAsync_precheckRejectsWithoutCallingServers() throws Exception {
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+
+		assertEquals(OtpPrecheck.Stage.MODHEX, yubiauth.verifyOtpAsync(OTP.toUpperCase()).get().getRejectedBy());
+		assertEquals(OtpPrecheck.Stage.LENGTH, yubiauth.verifyOtpAsync("cccccc").get().getRejectedBy());
+		assertFalse(yubiauth.verifyOtpAsync(OTP, "cccccccccccc").get());
+		assertFalse(yubiauth.verifyOtpAsync(OTP.substring(2), PUBLIC_ID).get());
+		verify(client, times(0)).verify(anyString());
+
+		Map<OtpPrecheck.Stage, Long> rejections = yubiauth.getPrecheck().getRejections();
+		assertEquals(Long.valueOf(1), rejections.get(OtpPrecheck.Stage.MODHEX));
+		assertEquals(Long.valueOf(1), rejections.get(OtpPrecheck.Stage.LENGTH));
+		assertEquals(Long.valueOf(2), rejections.get(OtpPrecheck.Stage.PUBLIC_ID));
+	}
+
+	@Test
+	public void verifyOtpAsync_recentlySeenRejectedAfterMemoExpires() throws Exception {
+		VerificationResponse replayed = response(ResponseStatus.REPLAYED_OTP);
+		when(client.verify(OTP)).thenReturn(replayed);
+
+		Yubiauth yubiauth = new Yubiauth(client, executor, 1000, 0);
+		assertEquals(VerifyStatus.FAILED, yubiauth.verifyOtp(OTP).getVerifyStatus());
+		YubiVerifyResponse verifyResponse = yubiauth.verifyOtp(OTP);
+		assertEquals(VerifyStatus.FAILED, verifyResponse.getVerifyStatus());
+		assertEquals(OtpPrecheck.Stage.RECENTLY_SEEN, verifyResponse.getRejectedBy());
+		assertFalse(yubiauth.verifyOtp(OTP, PUBLIC_ID));
+		verify(client, times(1)).verify(OTP);
+	}
+
+	private Answer<VerificationResponse> blockUntilReleased() {
+		return new Answer<VerificationResponse>() {
+			@Override
+			public VerificationResponse answer(InvocationOnMock invocation) throws InterruptedException {
+				release.await();
+				return response(ResponseStatus.OK);
+			}
+		};
+	}
+
+	private static VerificationResponse response(ResponseStatus status) {
+		VerificationResponse response = mock(VerificationResponse.class);
+		when(response.getStatus()).thenReturn(status);
+		when(response.getPublicId()).thenReturn(PUBLIC_ID);
+		return response;
+	}
+}